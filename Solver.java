@@ -6,15 +6,99 @@
  *  - Geremia Mirco
  */
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * A finite domain of integer values
+ * Empty domains have getMin() == Integer.MAX_VALUE
+ * and getMax() == Integer.MIN_VALUE
+ */
+interface Domain {
+
+    int getMin();
+
+    int getMax();
+
+    /*
+     * @return the smallest element greater than val,
+     * Integer.MAX_VALUE if there is none
+     */
+    int next(int val);
+
+    /*
+     * @return the greatest element smaller than val,
+     * Integer.MIN_VALUE if there is none
+     */
+    int prev(int val);
+
+    int size();
+
+    boolean empty();
+
+    boolean contains(int val);
+
+    /*
+     * @return true if val was in the domain
+     */
+    boolean remove(int val);
+
+    /*
+     * Put back a value removed before
+     */
+    void add(int val);
+
+    void removeMax();
+
+    Domain copy();
+
+    void clear();
+}
 
 /*
  * ListDomain represents an explicit domain
  * Elements of the domain are integer values
+ * Kept for comparison with BitDomain (-list)
  */
-class ListDomain {
+class ListDomain implements Domain {
 
     private List<Integer> elems;
 
@@ -63,6 +147,41 @@ class ListDomain {
         return max;
     }
 
+    public int next(int val) {
+        int next = Integer.MAX_VALUE;
+        for (int elem : elems) {
+            if (elem > val && elem < next) {
+                next = elem;
+            }
+        }
+        return next;
+    }
+
+    public int prev(int val) {
+        int prev = Integer.MIN_VALUE;
+        for (int elem : elems) {
+            if (elem < val && elem > prev) {
+                prev = elem;
+            }
+        }
+        return prev;
+    }
+
+    public int size() {
+        return elems.size();
+    }
+
+    public boolean contains(int val) {
+        return elems.contains(val);
+    }
+
+    public boolean remove(int val) {
+        return elems.remove(Integer.valueOf(val));
+    }
+
+    public void add(int val) {
+        elems.add(val);
+    }
 
     /*
      * Remove from the domain the maximum value
@@ -73,30 +192,6 @@ class ListDomain {
     }
 
 
-    /*
-     * Remove inconsistent values from this domain
-     * according to arc consistency between this, d2 and c
-     * @return true if domain changed
-     */
-    public boolean removeInconsistent(ListDomain d2, BinaryConstraint c) {
-        int n = elems.size();
-        Iterator<Integer> i = elems.iterator();
-        while (i.hasNext()) {
-            int n1 = i.next();
-            boolean found = false;
-            for (int n2 : d2.elems) {
-                if (c.satisfied(n1, n2)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                i.remove();
-            }
-        }
-        return n != elems.size();
-    }
-
     public ListDomain copy() {
         List<Integer> l = new ArrayList<Integer>(elems);
         return new ListDomain(l);
@@ -106,6 +201,10 @@ class ListDomain {
         return elems.isEmpty();
     }
 
+    public void clear() {
+        elems.clear();
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
@@ -121,6 +220,180 @@ class ListDomain {
     }
 }
 
+/*
+ * BitDomain represents a domain as a bitset
+ * bit i of words stands for value base + i
+ * min, max and size are cached so that they cost O(1)
+ */
+class BitDomain implements Domain {
+
+    private int base;
+    private long[] words;
+    private int min;
+    private int max;
+    private int size;
+
+    /*
+     * create the domain {lo..hi}
+     */
+    public BitDomain(int lo, int hi) {
+        base = lo;
+        if (hi < lo) {
+            words = new long[0];
+            size = 0;
+            min = Integer.MAX_VALUE;
+            max = Integer.MIN_VALUE;
+            return;
+        }
+        size = hi - lo + 1;
+        words = new long[((size - 1) >>> 6) + 1];
+        Arrays.fill(words, -1L);
+        words[words.length - 1] = -1L >>> (63 - ((size - 1) & 63));
+        min = lo;
+        max = hi;
+    }
+
+    private BitDomain(int base, long[] words, int min, int max, int size) {
+        this.base = base;
+        this.words = words;
+        this.min = min;
+        this.max = max;
+        this.size = size;
+    }
+
+    /*
+     * @return value represented by bit 0
+     */
+    public int getBase() {
+        return base;
+    }
+
+    /*
+     * @return the underlying bitset (not a copy)
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public int next(int val) {
+        if (val < min) {
+            return min;
+        }
+        if (val >= max) {
+            return Integer.MAX_VALUE;
+        }
+        int i = val - base + 1;
+        int w = i >>> 6;
+        long word = words[w] & (-1L << i);
+        while (word == 0) {
+            word = words[++w]; // can't run past max
+        }
+        return base + (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    public int prev(int val) {
+        if (val > max) {
+            return max;
+        }
+        if (val <= min) {
+            return Integer.MIN_VALUE;
+        }
+        int i = val - base - 1;
+        int w = i >>> 6;
+        long word = words[w] & (-1L >>> (63 - (i & 63)));
+        while (word == 0) {
+            word = words[--w]; // can't run past min
+        }
+        return base + (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public boolean contains(int val) {
+        if (val < min || val > max) {
+            return false;
+        }
+        int i = val - base;
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public boolean remove(int val) {
+        if (!contains(val)) {
+            return false;
+        }
+        int i = val - base;
+        words[i >>> 6] &= ~(1L << i);
+        size--;
+        if (size == 0) {
+            min = Integer.MAX_VALUE;
+            max = Integer.MIN_VALUE;
+        } else {
+            if (val == min) {
+                min = next(val);
+            }
+            if (val == max) {
+                max = prev(val);
+            }
+        }
+        return true;
+    }
+
+    public void add(int val) {
+        int i = val - base;
+        words[i >>> 6] |= 1L << i;
+        size++;
+        if (val < min) {
+            min = val;
+        }
+        if (val > max) {
+            max = val;
+        }
+    }
+
+    public void removeMax() {
+        remove(max);
+    }
+
+    public BitDomain copy() {
+        return new BitDomain(base, words.clone(), min, max, size);
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+        size = 0;
+        min = Integer.MAX_VALUE;
+        max = Integer.MIN_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+
+        sb.append("{ ");
+        for (int i = min; i != Integer.MAX_VALUE; i = next(i)) {
+            sb.append(i);
+            sb.append(" ");
+        }
+        sb.append("}");
+
+        return sb.toString();
+    }
+}
+
 /*
  * A problem variable
  * has a name and a domain
@@ -128,19 +401,28 @@ class ListDomain {
 class Variable {
 
     private String name;
-    private ListDomain domain;
+    private Domain domain;
+    private int index; // position in the problem variables
 
-    public Variable(String nam, ListDomain dom) {
+    public Variable(String nam, Domain dom) {
         name = nam;
         domain = dom;
     }
 
-    public ListDomain getDomain() {
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int i) {
+        index = i;
+    }
+
+    public Domain getDomain() {
         return domain;
     }
 
-    public void setDomain(ListDomain n_dom) {
-        domain.getElems().clear();
+    public void setDomain(Domain n_dom) {
+        domain.clear();
         domain = n_dom;
     }
 
@@ -153,33 +435,13 @@ class Variable {
         return name + " = " + domain.toString();
     }
 
-	public void toMinion(StringBuffer sb) {
+	public void toMinion(MinionWriter w) {
 		// output as a discrete variable
 		// values ranges from minimum to maximum
 		// domain values (conservative)
-		sb.append("DISCRETE " + getName() + " {" + 
-				domain.getMin() + ".." + domain.getMax() + "}\n");
+		w.print("DISCRETE ").print(getName()).print(" {")
+			.print(domain.getMin()).print("..").print(domain.getMax()).println("}");
 	}
-
-	/*
-	 * Make a string representation of a list of variables
-	 * suitable for minion
-	 */
-	static public String minionVarList(List<Variable> vars) {
-		StringBuffer sb = new StringBuffer();
-		sb.append("[");
-		int n = 0;
-		for (Variable v : vars) {
-			sb.append(v.getName());
-			if (n != vars.size()-1) {
-				sb.append(",");
-			}
-			n++;
-		}
-		sb.append("]");
-		return sb.toString();
-	}
-	
 }
 
 /*
@@ -230,527 +492,5912 @@ class Pair {
 }
 
 /*
- * Constraint between two variable
- * explicit representation through pairs
- * of accepted values (integers)
+ * Set of accepted pairs (x, y) of a binary constraint
  */
-class BinaryConstraint {
-
-    private HashSet<Pair> pairs;
-    private Variable a;
-    private Variable b;
-
-    public BinaryConstraint(Variable a, Variable b) {
-        pairs = new HashSet<Pair>();
-        this.a = a;
-        this.b = b;
-    }
+interface Table {
 
-    public Variable getA() {
-        return this.a;
+    interface PairVisitor {
+        void visit(int x, int y);
     }
 
-    public Variable getB() {
-        return this.b;
-    }
+    void add(int x, int y);
 
-    public void add(Pair p) {
-        pairs.add(p);
-    }
+    boolean allowed(int x, int y);
 
     /*
-     * Make a new binary constraint
-     * which is a transposed version
-     * of this one
+     * @return a value y of d such that (x, y) is allowed,
+     * Integer.MAX_VALUE if there is none
      */
-    public BinaryConstraint transpose() {
-        BinaryConstraint bc = new BinaryConstraint(b, a);
-        for (Pair p : pairs) {
-        	// add each pair reversed
-            bc.add(new Pair(p.y, p.x));
-        }
-        return bc;
-    }
+    int findSupport(int x, Domain d);
 
     /*
-     * Tell if the pair (x, y) satisfies this constraint
+     * @return a value x of d such that (x, y) is allowed,
+     * Integer.MAX_VALUE if there is none
      */
-    public boolean satisfied(int x, int y) {
-        return pairs.contains(new Pair(x, y));
-    }
+    int findSupportT(int y, Domain d);
 
-    /*
-     * Remove from the domain of the first variable
-     * values that don't have a support in the domain
-     * of the second variable
-     */
-    public boolean revise() {
-        return a.getDomain().removeInconsistent(b.getDomain(), this);
-    }
+    int size();
 
-    public String toString() {
-        return "#<constraint(" + a.getName() + "," + b.getName() + "):" + pairs.toString() + ">";
-    }
+    void forEach(PairVisitor v);
+}
+
+/*
+ * Table over a range of values that can be filled at once,
+ * for strict constraints drawn by their rejected pairs
+ */
+interface DenseTable extends Table {
 
     /*
-     * @return name of a minion table associated with this constraint
+     * Accept every pair
      */
-    private String minionTable() {
-    	return a.getName() + "_" + b.getName();
-    }
-    
-	public void toMinion(StringBuffer sb) {
-		sb.append(minionTable() + " " + pairs.size() + " 2\n");
-		for (Pair p : pairs) {
-			sb.append(p.x + " " + p.y + "\n");
-		}
-	}
+    void fill();
 
-	public void toMinionTable(StringBuffer sb) {
-		sb.append("table([");
-		sb.append(a.getName() + "," + b.getName() + "],");
-		sb.append(minionTable() + ")\n");
-	}
+    void remove(int x, int y);
 }
 
 /*
- * A CSP optimization problem
+ * Explicit representation through a hash set of pairs
+ * Kept for comparison with BitTable (-hash)
  */
-class Problem {
+class PairTable implements Table {
 
-    public interface Evaluator {
-        int eval(List<Variable> vars);
-		void toMinion(StringBuffer sb, List<Variable> vars);
-		void toMinionVariable(StringBuffer sb, List<Variable> vars);
-		String minionName();
+    private HashSet<Pair> pairs = new HashSet<Pair>();
+
+    public void add(int x, int y) {
+        pairs.add(new Pair(x, y));
     }
-    
-    private List<Variable> vars;
-    private List<BinaryConstraint> constraints;
-    private List<BinaryConstraint> constraints_t; // transposed constraints
-    private Evaluator heuristic;
-    private Evaluator objectiveFunction;
-    private List<Integer> sol;
-    private int bound;
-    private boolean propagation;
-    private int visitedNodes; // track number of nodes visited by bb()
 
-    public Problem(Evaluator h, Evaluator of, boolean prop) {
-        heuristic = h;
-        objectiveFunction = of;
-        constraints = new ArrayList<BinaryConstraint>();
-        constraints_t = new ArrayList<BinaryConstraint>();
-        sol = new ArrayList<Integer>();
-        bound = Integer.MIN_VALUE;
-        propagation = prop;
-        visitedNodes = 0;
+    public boolean allowed(int x, int y) {
+        return pairs.contains(new Pair(x, y));
     }
 
-    public void setVariables(List<Variable> vars) {
-        this.vars = vars;
+    public int findSupport(int x, Domain d) {
+        for (int y = d.getMin(); y != Integer.MAX_VALUE; y = d.next(y)) {
+            if (allowed(x, y)) {
+                return y;
+            }
+        }
+        return Integer.MAX_VALUE;
     }
 
-    private int evalHeuristic() {
-        return heuristic.eval(vars);
+    public int findSupportT(int y, Domain d) {
+        for (int x = d.getMin(); x != Integer.MAX_VALUE; x = d.next(x)) {
+            if (allowed(x, y)) {
+                return x;
+            }
+        }
+        return Integer.MAX_VALUE;
     }
 
-    private int evalObjectiveFunction() {
-        return objectiveFunction.eval(vars);
+    public int size() {
+        return pairs.size();
     }
 
-    private boolean notFailed() {
-        for (Variable v : vars) {
-            if (v.getDomain().empty()) {
-                return false;
-            }
+    public void forEach(PairVisitor v) {
+        for (Pair p : pairs) {
+            v.visit(p.x, p.y);
         }
-        return true;
     }
+}
 
-    private int getBound() {
-        return this.bound;
+/*
+ * Bit matrix representation, indexed by value
+ * rows[x - loA] has bit (y - loB) set if (x, y) is allowed
+ * cols is the same matrix by columns, so that supports
+ * can be searched with word ANDs in both directions
+ */
+class BitTable implements DenseTable {
+
+    private int loA;
+    private int loB;
+    private long[][] rows;
+    private long[][] cols;
+    private int size;
+
+    /*
+     * create an empty table for x in {loA..hiA}, y in {loB..hiB}
+     */
+    public BitTable(int loA, int hiA, int loB, int hiB) {
+        this.loA = loA;
+        this.loB = loB;
+        int nA = Math.max(hiA - loA + 1, 0);
+        int nB = Math.max(hiB - loB + 1, 0);
+        rows = new long[nA][(nB + 63) >>> 6];
+        cols = new long[nB][(nA + 63) >>> 6];
+        size = 0;
     }
 
-    private void setBound(int new_b) {
-        this.bound = new_b;
+    public void add(int x, int y) {
+        int i = x - loA;
+        int j = y - loB;
+        if ((rows[i][j >>> 6] & (1L << j)) == 0) {
+            rows[i][j >>> 6] |= 1L << j;
+            cols[j][i >>> 6] |= 1L << i;
+            size++;
+        }
     }
 
-    public void addConstraint(BinaryConstraint bc) {
-        constraints.add(bc);
-        constraints_t.add(bc.transpose());
+    public boolean allowed(int x, int y) {
+        int i = x - loA;
+        int j = y - loB;
+        if (i < 0 || i >= rows.length || j < 0 || j >= cols.length) {
+            return false;
+        }
+        return (rows[i][j >>> 6] & (1L << j)) != 0;
     }
 
-    public boolean doPropagation() {
-        return this.propagation;
+    public int findSupport(int x, Domain d) {
+        int i = x - loA;
+        if (i < 0 || i >= rows.length) {
+            return Integer.MAX_VALUE;
+        }
+        return support(rows[i], loB, d);
+    }
+
+    public int findSupportT(int y, Domain d) {
+        int j = y - loB;
+        if (j < 0 || j >= cols.length) {
+            return Integer.MAX_VALUE;
+        }
+        return support(cols[j], loA, d);
     }
 
     /*
-     * The AC-1 propagation algorithm
+     * @return first value of d whose bit is set in line,
+     * bit i of line standing for value lo + i
      */
-    public void ac1() {
-        boolean changed = true;
-        while (changed) {
-            changed = false;
-            Iterator<BinaryConstraint> ic = constraints.iterator();
-            Iterator<BinaryConstraint> ic_t = constraints_t.iterator();
-            while (ic.hasNext()) {
-                boolean a = ic.next().revise();
-                boolean b = ic_t.next().revise();
-                if (a || b) {
-                    changed = true;
+    private static int support(long[] line, int lo, Domain d) {
+        if (d instanceof BitDomain && ((BitDomain) d).getBase() == lo) {
+            if (d.empty()) {
+                return Integer.MAX_VALUE;
+            }
+            long[] words = ((BitDomain) d).getWords();
+            int last = Math.min((d.getMax() - lo) >>> 6, line.length - 1);
+            for (int k = (d.getMin() - lo) >>> 6; k <= last; k++) {
+                long w = line[k] & words[k];
+                if (w != 0) {
+                    return lo + (k << 6) + Long.numberOfTrailingZeros(w);
                 }
             }
+            return Integer.MAX_VALUE;
         }
+        // other domains: test each value
+        int n = line.length << 6;
+        for (int v = d.getMin(); v != Integer.MAX_VALUE; v = d.next(v)) {
+            int i = v - lo;
+            if (i >= 0 && i < n && (line[i >>> 6] & (1L << i)) != 0) {
+                return v;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void fill() {
+        fillLines(rows, cols.length);
+        fillLines(cols, rows.length);
+        size = rows.length * cols.length;
+    }
+
+    private static void fillLines(long[][] lines, int bits) {
+        for (long[] line : lines) {
+            Arrays.fill(line, -1L);
+            if (bits % 64 != 0) {
+                line[line.length - 1] = -1L >>> (64 - bits % 64);
+            }
+        }
+    }
+
+    public void remove(int x, int y) {
+        int i = x - loA;
+        int j = y - loB;
+        if ((rows[i][j >>> 6] & (1L << j)) != 0) {
+            rows[i][j >>> 6] &= ~(1L << j);
+            cols[j][i >>> 6] &= ~(1L << i);
+            size--;
+        }
+    }
+
+    public void forEach(PairVisitor v) {
+        for (int i = 0; i < rows.length; i++) {
+            long[] row = rows[i];
+            for (int k = 0; k < row.length; k++) {
+                long w = row[k];
+                while (w != 0) {
+                    v.visit(loA + i, loB + (k << 6) + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+        }
+    }
+}
+
+/*
+ * Bit matrix stored in a buffer: a mapping of an InstanceFile
+ * (read only) or a TableArena
+ * The nA rows are followed by the nB columns of the same matrix,
+ * so that supports are searched with word ANDs in both directions
+ */
+class BufferTable implements DenseTable {
+
+    private ByteBuffer buf;
+    private int base; // offset of the first row in buf
+    private int cols; // offset of the first column in buf
+    private int loA;
+    private int loB;
+    private int nA;
+    private int nB;
+    private int words; // longs per row
+    private int colWords; // longs per column
+    private int size;
+
+    public BufferTable(ByteBuffer buf, int base, int loA, int hiA, int loB, int hiB, int size) {
+        this.buf = buf;
+        this.base = base;
+        this.loA = loA;
+        this.loB = loB;
+        nA = Math.max(hiA - loA + 1, 0);
+        nB = Math.max(hiB - loB + 1, 0);
+        words = (nB + 63) >>> 6;
+        colWords = (nA + 63) >>> 6;
+        cols = base + ((nA * words) << 3);
+        this.size = size;
     }
 
     /*
-     * Return true if the current solution is a valid one
+     * @return bytes taken by a table for x in {loA..hiA}, y in {loB..hiB}
      */
-    public boolean validSol() {
-        int elem1, elem2;
+    public static long bytes(int loA, int hiA, int loB, int hiB) {
+        long nA = Math.max((long) hiA - loA + 1, 0);
+        long nB = Math.max((long) hiB - loB + 1, 0);
+        return (nA * ((nB + 63) >>> 6) + nB * ((nA + 63) >>> 6)) * 8;
+    }
 
-        // for each constraint, check if it is satisfied
-        for (BinaryConstraint bc : constraints) {
-        	// variables are assumed to be assigned
-        	// getMax() will return the only element
-        	// in their domain
-            elem1 = bc.getA().getDomain().getMax();
-            elem2 = bc.getB().getDomain().getMax();
-            if (bc.satisfied(elem1, elem2) == false) {
-                return false;
+    public void add(int x, int y) {
+        int i = x - loA;
+        int j = y - loB;
+        int row = rowWord(i, j >>> 6);
+        long w = buf.getLong(row);
+        if ((w & (1L << j)) == 0) {
+            buf.putLong(row, w | (1L << j));
+            int col = colWord(j, i >>> 6);
+            buf.putLong(col, buf.getLong(col) | (1L << i));
+            size++;
+        }
+    }
+
+    public void remove(int x, int y) {
+        int i = x - loA;
+        int j = y - loB;
+        int row = rowWord(i, j >>> 6);
+        long w = buf.getLong(row);
+        if ((w & (1L << j)) != 0) {
+            buf.putLong(row, w & ~(1L << j));
+            int col = colWord(j, i >>> 6);
+            buf.putLong(col, buf.getLong(col) & ~(1L << i));
+            size--;
+        }
+    }
+
+    public void fill() {
+        fillLines(base, nA, words, nB);
+        fillLines(cols, nB, colWords, nA);
+        size = nA * nB;
+    }
+
+    private void fillLines(int offset, int lines, int lineWords, int bits) {
+        for (int i = 0; i < lines; i++) {
+            int line = offset + ((i * lineWords) << 3);
+            for (int k = 0; k < lineWords; k++) {
+                buf.putLong(line + (k << 3), -1L);
+            }
+            if (bits % 64 != 0) {
+                buf.putLong(line + ((lineWords - 1) << 3), -1L >>> (64 - bits % 64));
             }
         }
-     
-        return true;
+    }
+
+    // offset of word k of row i
+    private int rowWord(int i, int k) {
+        return base + ((i * words + k) << 3);
+    }
+
+    // offset of word k of column j
+    private int colWord(int j, int k) {
+        return cols + ((j * colWords + k) << 3);
+    }
+
+    public boolean allowed(int x, int y) {
+        int i = x - loA;
+        int j = y - loB;
+        if (i < 0 || i >= nA || j < 0 || j >= nB) {
+            return false;
+        }
+        return (buf.getLong(rowWord(i, j >>> 6)) & (1L << j)) != 0;
+    }
+
+    public int findSupport(int x, Domain d) {
+        int i = x - loA;
+        if (i < 0 || i >= nA) {
+            return Integer.MAX_VALUE;
+        }
+        return support(rowWord(i, 0), words, loB, d);
+    }
+
+    public int findSupportT(int y, Domain d) {
+        int j = y - loB;
+        if (j < 0 || j >= nB) {
+            return Integer.MAX_VALUE;
+        }
+        return support(colWord(j, 0), colWords, loA, d);
     }
 
     /*
-     * Save the current solution as the best one
+     * @return first value of d whose bit is set in the line of
+     * lineWords longs at offset, bit i standing for value lo + i
      */
-    public void setSol() {
-        sol.clear();
-        for (Variable v : vars) {
-            sol.add(v.getDomain().getElems().get(0)); // in a solution, every domain is a singleton
+    private int support(int offset, int lineWords, int lo, Domain d) {
+        if (d instanceof BitDomain && ((BitDomain) d).getBase() == lo) {
+            if (d.empty()) {
+                return Integer.MAX_VALUE;
+            }
+            long[] dw = ((BitDomain) d).getWords();
+            int last = Math.min((d.getMax() - lo) >>> 6, lineWords - 1);
+            for (int k = (d.getMin() - lo) >>> 6; k <= last; k++) {
+                long w = buf.getLong(offset + (k << 3)) & dw[k];
+                if (w != 0) {
+                    return lo + (k << 6) + Long.numberOfTrailingZeros(w);
+                }
+            }
+            return Integer.MAX_VALUE;
         }
+        // other domains: test each value
+        int n = lineWords << 6;
+        for (int v = d.getMin(); v != Integer.MAX_VALUE; v = d.next(v)) {
+            int i = v - lo;
+            if (i >= 0 && i < n && (buf.getLong(offset + ((i >>> 6) << 3)) & (1L << i)) != 0) {
+                return v;
+            }
+        }
+        return Integer.MAX_VALUE;
     }
 
-    public void printSol() {
-        if (sol.isEmpty()) {
-            System.out.println("No solutions.");
+    public int size() {
+        return size;
+    }
+
+    public void forEach(PairVisitor v) {
+        for (int i = 0; i < nA; i++) {
+            for (int k = 0; k < words; k++) {
+                long w = buf.getLong(rowWord(i, k));
+                while (w != 0) {
+                    v.visit(loA + i, loB + (k << 6) + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
         }
-        else {
-            System.out.print("Solution: ");
-            for (int s : sol) {
-                System.out.print(s);
-                System.out.print(' ');
+    }
+}
+
+/*
+ * Off heap storage of the tables of a problem (-offheap)
+ * Tables are BufferTables carved out of direct buffers, rows and
+ * columns together: with dense instances the heap then keeps the
+ * constraint and table objects, but not the bits of the tables
+ */
+class TableArena {
+
+    static final int CHUNK = 1 << 26; // bytes of a direct buffer
+
+    private ByteBuffer chunk; // buffer being carved, null for none
+    private int free; // first free byte of chunk
+
+    /*
+     * @return a new empty table for x in {loA..hiA}, y in {loB..hiB}
+     */
+    public synchronized BufferTable allocate(int loA, int hiA, int loB, int hiB) {
+        long n = BufferTable.bytes(loA, hiA, loB, hiB);
+        if (n > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("table too large: " + n + " bytes");
+        }
+        if (chunk == null || free + n > chunk.capacity()) {
+            // tables larger than a chunk get a buffer of their own
+            chunk = ByteBuffer.allocateDirect((int) Math.max(n, CHUNK))
+                    .order(ByteOrder.nativeOrder());
+            free = 0;
+        }
+        BufferTable t = new BufferTable(chunk, free, loA, hiA, loB, hiB, 0);
+        free += (int) n;
+        return t;
+    }
+}
+
+/*
+ * Constraint between two variable
+ * explicit representation through a table
+ * of accepted pairs of values (integers)
+ */
+class BinaryConstraint {
+
+    private Table table;
+    private boolean transposed; // table pairs are (b, a)
+    private Variable a;
+    private Variable b;
+
+    /*
+     * Create a constraint with a BitTable
+     * covering the current domains of a and b
+     */
+    public BinaryConstraint(Variable a, Variable b) {
+        this(a, b, new BitTable(a.getDomain().getMin(), a.getDomain().getMax(),
+                b.getDomain().getMin(), b.getDomain().getMax()));
+    }
+
+    public BinaryConstraint(Variable a, Variable b, Table t) {
+        this(a, b, t, false);
+    }
+
+    private BinaryConstraint(Variable a, Variable b, Table t, boolean transposed) {
+        this.table = t;
+        this.transposed = transposed;
+        this.a = a;
+        this.b = b;
+    }
+
+    public Variable getA() {
+        return this.a;
+    }
+
+    public Variable getB() {
+        return this.b;
+    }
+
+    /*
+     * @return the same constraint between a2 and b2
+     * sharing the table
+     */
+    public BinaryConstraint rebind(Variable a2, Variable b2) {
+        return new BinaryConstraint(a2, b2, table, transposed);
+    }
+
+    /*
+     * Make a new binary constraint
+     * which is a transposed version
+     * of this one
+     * The table is shared, not copied
+     */
+    public BinaryConstraint transpose() {
+        return new BinaryConstraint(b, a, table, !transposed);
+    }
+
+    /*
+     * Tell if the pair (x, y) satisfies this constraint
+     */
+    public boolean satisfied(int x, int y) {
+        return transposed ? table.allowed(y, x) : table.allowed(x, y);
+    }
+
+    /*
+     * @return a value y of d such that (x, y) satisfies
+     * this constraint, Integer.MAX_VALUE if there is none
+     */
+    public int findSupport(int x, Domain d) {
+        return transposed ? table.findSupportT(x, d) : table.findSupport(x, d);
+    }
+
+    /*
+     * Remove from the domain of the first variable
+     * values that don't have a support in the domain
+     * of the second variable
+     * Removals are recorded in t
+     */
+    public boolean revise(Trail t) {
+        Domain da = a.getDomain();
+        Domain db = b.getDomain();
+        boolean changed = false;
+        int x = da.getMin();
+        while (x != Integer.MAX_VALUE) {
+            int following = da.next(x);
+            if (findSupport(x, db) == Integer.MAX_VALUE) {
+                t.remove(a, x);
+                changed = true;
             }
-            System.out.println();
+            x = following;
         }
+        return changed;
     }
 
-    public boolean hasSolution() {
-    	return !sol.isEmpty();
+    /*
+     * Visit every accepted pair as (value of a, value of b)
+     */
+    public void forEachPair(final Table.PairVisitor v) {
+        if (transposed) {
+            table.forEach(new Table.PairVisitor() {
+                public void visit(int x, int y) {
+                    v.visit(y, x);
+                }
+            });
+        } else {
+            table.forEach(v);
+        }
     }
 
-    public int getVisitedNodes() {
-    	return visitedNodes;
+    public String toString() {
+        final List<Pair> pairs = new ArrayList<Pair>();
+        forEachPair(new Table.PairVisitor() {
+            public void visit(int x, int y) {
+                pairs.add(new Pair(x, y));
+            }
+        });
+        return "#<constraint(" + a.getName() + "," + b.getName() + "):" + pairs.toString() + ">";
+    }
+
+    /*
+     * @return name of a minion table associated with this constraint
+     */
+    private String minionTable() {
+    	return a.getName() + "_" + b.getName();
     }
     
+	public void toMinion(final MinionWriter w) {
+		w.print(minionTable()).print(' ').print(table.size()).println(" 2");
+		forEachPair(new Table.PairVisitor() {
+			public void visit(int x, int y) {
+				w.print(x).print(' ').print(y).println();
+			}
+		});
+	}
+
+	public void toMinionTable(MinionWriter w) {
+		w.print("table([").print(a.getName()).print(',').print(b.getName())
+			.print("],").print(minionTable()).println(")");
+	}
+}
+
+/*
+ * Writes a minion file straight to a channel, a buffer at a time
+ * Numbers are formatted in place so no strings are built for the
+ * tuple lists. Like PrintWriter it doesn't throw while writing:
+ * the first error stops the output and is thrown by close()
+ */
+class MinionWriter {
+
+    private WritableByteChannel ch;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    private byte[] digits = new byte[11];
+    private IOException error;
+
     /*
-     * Branch&Bound implementation
+     * gzip: compress the output
      */
-    public void bb(int lev) {
-        Variable cv = this.vars.get(lev);
-        List<ListDomain> dom_copy = new ArrayList<ListDomain>();
+    public MinionWriter(String fileName, boolean gzip) throws IOException {
+        if (gzip) {
+            ch = Channels.newChannel(new GZIPOutputStream(
+                    new FileOutputStream(fileName), buf.capacity()));
+        } else {
+            ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+    }
 
-        ListDomain dom_tmp = cv.getDomain().copy(); // copy current domain
-       
-        while (dom_tmp.empty() == false) {
-            dom_copy.clear();
-            for (Variable v : vars) {
-                dom_copy.add(v.getDomain().copy()); // copy all domains
-            }
-            ListDomain sing_dom = new ListDomain(dom_tmp.getMax());
-            cv.setDomain(sing_dom);
-            visitedNodes++; // node visited
-            
-            if (doPropagation()) {
-                ac1();
+    // s must be ascii, as every minion token is
+    public MinionWriter print(String s) {
+        for (int i=0; i<s.length(); i++) {
+            print(s.charAt(i));
+        }
+        return this;
+    }
+
+    public MinionWriter print(char c) {
+        if (!buf.hasRemaining()) {
+            flush();
+        }
+        buf.put((byte)c);
+        return this;
+    }
+
+    public MinionWriter print(int x) {
+        if (buf.remaining() < digits.length + 1) {
+            flush();
+        }
+        if (x < 0) {
+            buf.put((byte)'-');
+        }
+        // digits of a negative number are negative: no overflow on MIN_VALUE
+        int n = digits.length;
+        do {
+            digits[--n] = (byte)('0' + Math.abs(x % 10));
+            x /= 10;
+        } while (x != 0);
+        buf.put(digits, n, digits.length - n);
+        return this;
+    }
+
+    public MinionWriter println(String s) {
+        return print(s).println();
+    }
+
+    public MinionWriter println() {
+        return print('\n');
+    }
+
+    // [a,b,...]
+    public MinionWriter varList(List<Variable> vars) {
+        print('[');
+        for (int i=0; i<vars.size(); i++) {
+            if (i > 0) {
+                print(',');
             }
-            // check if the propagation returned a failed CSP
-            if (!doPropagation() || notFailed()) {
-            	if ((lev + 1) < vars.size()) { // if it's not the last level
-            		int h = evalHeuristic(); // heuristic on actual configuration of domains
-            		if (h > getBound()) {
-            			bb(lev + 1); // next level
-            		}
-            	} else { // last level
-            		int of = evalObjectiveFunction();
-            		if (of > getBound()) {
-            			if (doPropagation() || validSol()) { // if propagation or, if not, if valid
-            				setBound(of);
-            				setSol(); // save current solution as the max values in domains
-            			}
-            		}
-            	}
+            print(vars.get(i).getName());
+        }
+        return print(']');
+    }
+
+    private void flush() {
+        buf.flip();
+        try {
+            while (error == null && buf.hasRemaining()) {
+                ch.write(buf);
             }
+        } catch (IOException e) {
+            error = e;
+        }
+        buf.clear();
+    }
 
-            dom_tmp.removeMax();
-            for (int i = 0; i < vars.size(); i++) { // restore domains
-                vars.get(i).setDomain(dom_copy.get(i));
+    public void close() throws IOException {
+        flush();
+        try {
+            ch.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
             }
-        } // end while
+        }
+        if (error != null) {
+            throw error;
+        }
     }
+}
 
-    @Override
-    public String toString() {
-        StringBuffer sb = new StringBuffer();
-        sb.append("Solution: " + sol.toString());
-        sb.append("#<Problem variables: ");
+/*
+ * Binary instance file, little endian:
+ *
+ *   header       "RCSP", version, #variables, #constraints,
+ *                offset of the first table (long)
+ *   variables    name (short length + bytes), lo, hi,
+ *                domain bits over {lo..hi} (longs)
+ *   constraints  index of a, index of b, loA, hiA, loB, hiB,
+ *                number of pairs, offset of the table (long)
+ *   tables       rows then columns of a bit matrix, as in BufferTable
+ *
+ * Tables are 8 byte aligned and never cross a CHUNK boundary, so
+ * the loader maps the file a chunk at a time and serves every
+ * table straight from its mapping with a BufferTable
+ */
+class InstanceFile {
+
+    public static final int MAGIC = 0x50534352; // "RCSP"
+    public static final int VERSION = 2;
+    public static final long CHUNK = 1L << 30;
+
+    public static void save(Problem p, String fileName) throws IOException {
+        List<Variable> vars = p.getVariables();
+        List<BinaryConstraint> cons = p.getConstraints();
+        // layout
+        long pos = 24;
         for (Variable v : vars) {
-            sb.append(v.toString());
-            sb.append(", ");
+            Domain d = v.getDomain();
+            pos += 2 + v.getName().length() + 8 + 8 * domainWords(d);
+        }
+        pos += 36L * cons.size();
+        long first = (pos + 7) & ~7L;
+        long[] offsets = new long[cons.size()];
+        pos = first;
+        for (int i = 0; i < cons.size(); i++) {
+            long len = tableBytes(cons.get(i));
+            if (pos % CHUNK + len > CHUNK) {
+                pos += CHUNK - pos % CHUNK;
+            }
+            offsets[i] = pos;
+            pos += len;
         }
-        sb.append("\nconstraints: ");
 
-        for (BinaryConstraint bc : constraints) {
-            sb.append(bc.toString());
-            sb.append("\n");
+        FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        Output out = new Output(ch);
+        try {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(vars.size());
+            out.putInt(cons.size());
+            out.putLong(first);
+            for (Variable v : vars) {
+                Domain d = v.getDomain();
+                byte[] name = v.getName().getBytes("US-ASCII");
+                out.putShort((short) name.length);
+                out.put(name);
+                int lo = d.empty() ? 0 : d.getMin();
+                int hi = d.empty() ? -1 : d.getMax();
+                out.putInt(lo);
+                out.putInt(hi);
+                long[] bits = new long[domainWords(d)];
+                for (int x = d.getMin(); x != Integer.MAX_VALUE; x = d.next(x)) {
+                    bits[(x - lo) >>> 6] |= 1L << (x - lo);
+                }
+                for (long w : bits) {
+                    out.putLong(w);
+                }
+            }
+            for (int i = 0; i < cons.size(); i++) {
+                BinaryConstraint bc = cons.get(i);
+                Domain da = bc.getA().getDomain();
+                Domain db = bc.getB().getDomain();
+                out.putInt(bc.getA().getIndex());
+                out.putInt(bc.getB().getIndex());
+                // an empty domain is the range {0..-1}, as for the variables
+                out.putInt(da.empty() ? 0 : da.getMin());
+                out.putInt(da.empty() ? -1 : da.getMax());
+                out.putInt(db.empty() ? 0 : db.getMin());
+                out.putInt(db.empty() ? -1 : db.getMax());
+                out.putInt(tableSize(bc));
+                out.putLong(offsets[i]);
+            }
+            for (int i = 0; i < cons.size(); i++) {
+                out.pad(offsets[i]);
+                for (long w : bits(cons.get(i))) {
+                    out.putLong(w);
+                }
+            }
+            out.flush();
+        } finally {
+            ch.close();
+        }
+    }
+
+    public static Problem load(String fileName, Options o) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            long length = ch.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + CHUNK - 1) / CHUNK)];
+            for (int k = 0; k < chunks.length; k++) {
+                long start = k * CHUNK;
+                chunks[k] = ch.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(CHUNK, length - start)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            // the header may run over the first mapping
+            Input h = new Input(chunks, length);
+            if (length < 24 || h.getInt() != MAGIC) {
+                throw new IOException(fileName + " is not an instance file");
+            }
+            if (h.getInt() != VERSION) {
+                throw new IOException(fileName + ": unsupported version");
+            }
+            int nvars = h.getInt();
+            int ncons = h.getInt();
+            h.getLong(); // offset of the first table
+
+            Problem p = new Problem(new MaxSum(), new MaxSum(), o);
+            List<Variable> vars = new ArrayList<Variable>();
+            for (int i = 0; i < nvars; i++) {
+                byte[] name = new byte[h.getShort()];
+                h.get(name);
+                int lo = h.getInt();
+                int hi = h.getInt();
+                long[] bits = new long[hi < lo ? 0 : ((hi - lo) >>> 6) + 1];
+                for (int k = 0; k < bits.length; k++) {
+                    bits[k] = h.getLong();
+                }
+                vars.add(new Variable(new String(name, "US-ASCII"),
+                        domain(lo, hi, bits, o.listDomains)));
+            }
+            p.setVariables(vars);
+            for (int i = 0; i < ncons; i++) {
+                Variable a = vars.get(h.getInt());
+                Variable b = vars.get(h.getInt());
+                int loA = h.getInt();
+                int hiA = h.getInt();
+                int loB = h.getInt();
+                int hiB = h.getInt();
+                int size = h.getInt();
+                long offset = h.getLong();
+                ByteBuffer chunk = chunks[(int) (offset / CHUNK)];
+                Table t = new BufferTable(chunk, (int) (offset % CHUNK), loA, hiA, loB, hiB, size);
+                p.addConstraint(new BinaryConstraint(a, b, t));
+            }
+            return p;
+        } finally {
+            // mappings stay valid after the channel is closed
+            ch.close();
+        }
+    }
+
+    /*
+     * @return the domain of the values of {lo..hi} whose bit is set,
+     * bit i of bits standing for lo + i
+     */
+    static Domain domain(int lo, int hi, long[] bits, boolean list) {
+        if (list) {
+            List<Integer> values = new ArrayList<Integer>();
+            for (int x = lo; x <= hi; x++) {
+                if ((bits[(x - lo) >>> 6] & (1L << (x - lo))) != 0) {
+                    values.add(x);
+                }
+            }
+            return new ListDomain(values);
+        }
+        Domain d = new BitDomain(lo, hi);
+        for (int x = lo; x <= hi; x++) {
+            if ((bits[(x - lo) >>> 6] & (1L << (x - lo))) == 0) {
+                d.remove(x);
+            }
+        }
+        return d;
+    }
+
+    private static int domainWords(Domain d) {
+        return d.empty() ? 0 : ((d.getMax() - d.getMin()) >>> 6) + 1;
+    }
+
+    private static long tableBytes(BinaryConstraint bc) {
+        Domain da = bc.getA().getDomain();
+        Domain db = bc.getB().getDomain();
+        if (da.empty() || db.empty()) {
+            return 0; // getMin() > getMax() on an empty domain
+        }
+        return BufferTable.bytes(da.getMin(), da.getMax(), db.getMin(), db.getMax());
+    }
+
+    /*
+     * @return pairs of bc within the current domains
+     */
+    private static int tableSize(BinaryConstraint bc) {
+        final Domain da = bc.getA().getDomain();
+        final Domain db = bc.getB().getDomain();
+        final int[] n = new int[1];
+        bc.forEachPair(new Table.PairVisitor() {
+            public void visit(int x, int y) {
+                if (x >= da.getMin() && x <= da.getMax()
+                        && y >= db.getMin() && y <= db.getMax()) {
+                    n[0]++;
+                }
+            }
+        });
+        return n[0];
+    }
+
+    /*
+     * @return the rows then the columns of bc over the current
+     * domain ranges
+     */
+    private static long[] bits(BinaryConstraint bc) {
+        final Domain da = bc.getA().getDomain();
+        final Domain db = bc.getB().getDomain();
+        final int loA = da.getMin();
+        final int loB = db.getMin();
+        final int words = da.empty() || db.empty() ? 0 : ((db.getMax() - loB) >>> 6) + 1;
+        final int colWords = da.empty() || db.empty() ? 0 : ((da.getMax() - loA) >>> 6) + 1;
+        final int cols = da.empty() ? 0 : (da.getMax() - loA + 1) * words;
+        final long[] bits = new long[(int) (tableBytes(bc) / 8)];
+        bc.forEachPair(new Table.PairVisitor() {
+            public void visit(int x, int y) {
+                if (x >= loA && x <= da.getMax() && y >= loB && y <= db.getMax()) {
+                    int i = x - loA;
+                    int j = y - loB;
+                    bits[i * words + (j >>> 6)] |= 1L << j;
+                    bits[cols + j * colWords + (i >>> 6)] |= 1L << i;
+                }
+            }
+        });
+        return bits;
+    }
+
+    /*
+     * Sequential little endian reader over the mappings of a file,
+     * a CHUNK each: unlike the tables, the header doesn't stop at
+     * chunk boundaries, so a value may start in one and end in the next
+     */
+    private static class Input {
+
+        private ByteBuffer[] chunks;
+        private long length;
+        private long pos;
+
+        Input(ByteBuffer[] chunks, long length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        // the next n bytes, least significant first
+        private long bytes(int n) throws IOException {
+            if (pos + n > length) {
+                throw new IOException("truncated instance file");
+            }
+            ByteBuffer c = chunks[(int) (pos / CHUNK)];
+            int i = (int) (pos % CHUNK);
+            pos += n;
+            if (i + n <= c.limit()) {
+                switch (n) {
+                case 1: return c.get(i);
+                case 2: return c.getShort(i);
+                case 4: return c.getInt(i);
+                default: return c.getLong(i);
+                }
+            }
+            long x = 0;
+            for (int k = 0; k < n; k++) {
+                long p = pos - n + k;
+                x |= (chunks[(int) (p / CHUNK)].get((int) (p % CHUNK)) & 0xffL) << (8 * k);
+            }
+            return x;
+        }
+
+        short getShort() throws IOException {
+            return (short) bytes(2);
+        }
+
+        int getInt() throws IOException {
+            return (int) bytes(4);
+        }
+
+        long getLong() throws IOException {
+            return bytes(8);
+        }
+
+        void get(byte[] b) throws IOException {
+            for (int k = 0; k < b.length; k++) {
+                b[k] = (byte) bytes(1);
+            }
+        }
+    }
+
+    /*
+     * Sequential writer through a direct buffer
+     */
+    private static class Output {
+
+        private FileChannel ch;
+        private ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Output(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        private void room(int n) throws IOException {
+            if (buf.remaining() < n) {
+                flush();
+            }
+        }
+
+        void putShort(short x) throws IOException {
+            room(2);
+            buf.putShort(x);
+        }
+
+        void putInt(int x) throws IOException {
+            room(4);
+            buf.putInt(x);
+        }
+
+        void putLong(long x) throws IOException {
+            room(8);
+            buf.putLong(x);
+        }
+
+        void put(byte[] b) throws IOException {
+            for (byte x : b) {
+                room(1);
+                buf.put(x);
+            }
+        }
+
+        // skip to offset, leaving zeros (or a hole) behind
+        void pad(long offset) throws IOException {
+            long gap = offset - written - buf.position();
+            if (gap <= buf.remaining()) {
+                while (gap-- > 0) {
+                    buf.put((byte) 0);
+                }
+            } else {
+                flush();
+                ch.position(offset);
+                written = offset;
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                written += ch.write(buf);
+            }
+            buf.clear();
+        }
+    }
+}
+
+/*
+ * Base of the text instance readers: a streaming tokenizer that
+ * reads the file a buffer at a time (gunzipping a .gz name), so
+ * instances of any size are read in one pass with no copy in memory
+ */
+abstract class InstanceReader {
+
+    protected String fileName;
+    protected Options o;
+    protected int lineComment = -1; // starts a comment up to the end of line
+    private TableArena arena; // of the tables, with -offheap
+    private ReadableByteChannel ch;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    private int line = 1;
+
+    protected InstanceReader(String fileName, Options o) throws IOException {
+        this.fileName = fileName;
+        this.o = o;
+        if (fileName.endsWith(".gz")) {
+            ch = Channels.newChannel(new GZIPInputStream(
+                    new FileInputStream(fileName), buf.capacity()));
+        } else {
+            ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        }
+        buf.flip();
+    }
+
+    /*
+     * @return the problem in fileName: a minion file (.minion),
+     * an XCSP3 file (.xml), else a binary instance (see InstanceFile)
+     */
+    public static Problem load(String fileName, Options o) throws IOException {
+        String name = fileName.endsWith(".gz")
+                ? fileName.substring(0, fileName.length() - 3) : fileName;
+        InstanceReader r;
+        if (name.endsWith(".minion")) {
+            r = new MinionReader(fileName, o);
+        } else if (name.endsWith(".xml")) {
+            r = new XcspReader(fileName, o);
+        } else {
+            return InstanceFile.load(fileName, o);
+        }
+        try {
+            return r.parse();
+        } finally {
+            r.ch.close();
+        }
+    }
+
+    protected abstract Problem parse() throws IOException;
+
+    /*
+     * @return the next byte without consuming it, -1 at end of file
+     */
+    protected int peek() throws IOException {
+        if (!buf.hasRemaining()) {
+            buf.clear();
+            int n;
+            do {
+                n = ch.read(buf);
+            } while (n == 0);
+            buf.flip();
+            if (n < 0) {
+                return -1;
+            }
+        }
+        return buf.get(buf.position()) & 0xff;
+    }
+
+    protected int read() throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            buf.get();
+            if (c == '\n') {
+                line++;
+            }
+        }
+        return c;
+    }
+
+    protected void skipSpace() throws IOException {
+        int c = peek();
+        while (c >= 0) {
+            if (c == lineComment) {
+                while (c >= 0 && c != '\n') {
+                    c = read();
+                }
+            } else if (Character.isWhitespace(c)) {
+                read();
+            } else {
+                return;
+            }
+            c = peek();
+        }
+    }
+
+    /*
+     * Consume c if it is the next token
+     */
+    protected boolean accept(char c) throws IOException {
+        skipSpace();
+        if (peek() == c) {
+            read();
+            return true;
+        }
+        return false;
+    }
+
+    protected void expect(char c) throws IOException {
+        if (!accept(c)) {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    protected static boolean wordChar(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                || c >= '0' && c <= '9' || c == '_';
+    }
+
+    protected String word() throws IOException {
+        skipSpace();
+        StringBuilder sb = new StringBuilder();
+        while (wordChar(peek())) {
+            sb.append((char) read());
+        }
+        if (sb.length() == 0) {
+            throw error("expected a name");
+        }
+        return sb.toString();
+    }
+
+    protected int number() throws IOException {
+        skipSpace();
+        boolean neg = accept('-');
+        int c = peek();
+        if (c < '0' || c > '9') {
+            throw error("expected a number");
+        }
+        // accumulate negative: no overflow on MIN_VALUE
+        int x = 0;
+        while (c >= '0' && c <= '9') {
+            x = x * 10 - (read() - '0');
+            c = peek();
+        }
+        return neg ? x : -x;
+    }
+
+    protected IOException error(String msg) {
+        return new IOException(fileName + ":" + line + ": " + msg);
+    }
+
+    /*
+     * @return the domain {lo..hi}
+     */
+    protected Domain range(int lo, int hi) {
+        long[] bits = new long[hi < lo ? 0 : ((hi - lo) >>> 6) + 1];
+        Arrays.fill(bits, -1L);
+        return InstanceFile.domain(lo, hi, bits, o.listDomains);
+    }
+
+    /*
+     * @return an empty table for pairs of da x db
+     */
+    protected Table newTable(Domain da, Domain db) {
+        return newTable(da.getMin(), da.getMax(), db.getMin(), db.getMax());
+    }
+
+    /*
+     * @return an empty table for x in {loA..hiA}, y in {loB..hiB}
+     */
+    protected Table newTable(int loA, int hiA, int loB, int hiB) {
+        if (o.hashTables) {
+            return new PairTable();
+        }
+        if (o.offHeap) {
+            if (arena == null) {
+                arena = new TableArena();
+            }
+            return arena.allocate(loA, hiA, loB, hiB);
+        }
+        return new BitTable(loA, hiA, loB, hiB);
+    }
+
+    /*
+     * @return a table of the pairs of da x db not allowed by conflicts
+     */
+    protected Table complement(Table conflicts, Domain da, Domain db) {
+        Table t = newTable(da, db);
+        for (int x = da.getMin(); x != Integer.MAX_VALUE; x = da.next(x)) {
+            for (int y = db.getMin(); y != Integer.MAX_VALUE; y = db.next(y)) {
+                if (!conflicts.allowed(x, y)) {
+                    t.add(x, y);
+                }
+            }
+        }
+        return t;
+    }
+
+    /*
+     * The objective is always the sum of the variables (MaxSum)
+     */
+    protected Problem problem(List<Variable> vars, List<BinaryConstraint> constraints) {
+        Problem p = new Problem(new MaxSum(), new MaxSum(), o);
+        p.setVariables(vars);
+        for (BinaryConstraint bc : constraints) {
+            p.addConstraint(bc);
+        }
+        return p;
+    }
+}
+
+/*
+ * Reads minion 3 files like the ones written by Problem.toMinion:
+ * DISCRETE, BOUND, BOOL and SPARSEBOUND variables, binary TUPLELISTs
+ * and table()/negativetable() constraints
+ * The MAXIMISING variable and the sum constraints defining it are
+ * dropped, as the objective is the sum of the other variables
+ */
+class MinionReader extends InstanceReader {
+
+    private Map<String, Variable> vars = new LinkedHashMap<String, Variable>();
+    private Map<String, Table> tuples = new HashMap<String, Table>();
+    private List<BinaryConstraint> constraints = new ArrayList<BinaryConstraint>();
+    private String objective;
+    private int lo; // range of the values of the tuple lists
+    private int hi;
+
+    public MinionReader(String fileName, Options o) throws IOException {
+        super(fileName, o);
+        lineComment = '#';
+    }
+
+    protected Problem parse() throws IOException {
+        if (!word().equals("MINION") || number() != 3) {
+            throw error("not a minion 3 file");
+        }
+        skipSpace();
+        while (peek() >= 0) {
+            expect('*');
+            expect('*');
+            String section = word();
+            expect('*');
+            expect('*');
+            if (section.equals("EOF")) {
+                break;
+            } else if (section.equals("VARIABLES")) {
+                variables();
+            } else if (section.equals("SEARCH")) {
+                search();
+            } else if (section.equals("TUPLELIST")) {
+                tupleLists();
+            } else if (section.equals("CONSTRAINTS")) {
+                constraints();
+            } else {
+                throw error("unknown section " + section);
+            }
+            skipSpace();
+        }
+        if (objective != null) {
+            vars.remove(objective);
+        }
+        return problem(new ArrayList<Variable>(vars.values()), constraints);
+    }
+
+    // a section ends where the next one (or the file) starts
+    private boolean atSection() throws IOException {
+        skipSpace();
+        return peek() == '*' || peek() < 0;
+    }
+
+    private void variables() throws IOException {
+        while (!atSection()) {
+            String kind = word();
+            String name = word();
+            if (accept('[')) {
+                throw error("variable arrays are not supported");
+            }
+            Domain d;
+            if (kind.equals("BOOL")) {
+                d = range(0, 1);
+            } else if (kind.equals("BOUND") || kind.equals("DISCRETE")) {
+                expect('{');
+                int l = number();
+                expect('.');
+                expect('.');
+                int h = number();
+                expect('}');
+                d = range(l, h);
+            } else if (kind.equals("SPARSEBOUND")) {
+                List<Integer> values = new ArrayList<Integer>();
+                expect('{');
+                do {
+                    values.add(number());
+                } while (accept(','));
+                expect('}');
+                d = sparse(values);
+            } else {
+                throw error("unsupported variable type " + kind);
+            }
+            vars.put(name, new Variable(name, d));
+        }
+    }
+
+    private Domain sparse(List<Integer> values) {
+        int l = Collections.min(values);
+        int h = Collections.max(values);
+        long[] bits = new long[((h - l) >>> 6) + 1];
+        for (int x : values) {
+            bits[(x - l) >>> 6] |= 1L << (x - l);
+        }
+        return InstanceFile.domain(l, h, bits, o.listDomains);
+    }
+
+    private void search() throws IOException {
+        while (!atSection()) {
+            if (!wordChar(peek())) {
+                read();
+                continue;
+            }
+            String w = word();
+            if (w.equals("MAXIMISING")) {
+                objective = word();
+            } else if (w.equals("MINIMISING")) {
+                throw error("only maximising the sum of the variables is supported");
+            }
+        }
+    }
+
+    /*
+     * Tuple lists are read before the constraints using them,
+     * so their tables cover the values of every variable
+     * but the objective
+     */
+    private void tupleLists() throws IOException {
+        lo = Integer.MAX_VALUE;
+        hi = Integer.MIN_VALUE;
+        for (Variable v : vars.values()) {
+            if (!v.getName().equals(objective)) {
+                lo = Math.min(lo, v.getDomain().getMin());
+                hi = Math.max(hi, v.getDomain().getMax());
+            }
+        }
+        while (!atSection()) {
+            String name = word();
+            int n = number();
+            if (number() != 2) {
+                throw error(name + ": only binary tuple lists are supported");
+            }
+            Table t = newTable(lo, hi, lo, hi);
+            for (int i = 0; i < n; i++) {
+                int x = number();
+                int y = number();
+                if (x >= lo && x <= hi && y >= lo && y <= hi) {
+                    t.add(x, y);
+                }
+            }
+            tuples.put(name, t);
+        }
+    }
+
+    private Variable variable(String name) throws IOException {
+        Variable v = vars.get(name);
+        if (v == null) {
+            throw error("unknown variable " + name);
+        }
+        return v;
+    }
+
+    private void constraints() throws IOException {
+        while (!atSection()) {
+            String name = word();
+            expect('(');
+            if (name.equals("table") || name.equals("negativetable")) {
+                expect('[');
+                Variable a = variable(word());
+                expect(',');
+                Variable b = variable(word());
+                expect(']');
+                expect(',');
+                Domain da = a.getDomain();
+                Domain db = b.getDomain();
+                boolean negative = name.equals("negativetable");
+                Table t;
+                if (accept('{')) {
+                    // inline tuples, conflicts are kept in a bit table
+                    t = negative ? new BitTable(da.getMin(), da.getMax(), db.getMin(), db.getMax())
+                            : newTable(da, db);
+                    if (!accept('}')) {
+                        do {
+                            expect('<');
+                            int x = number();
+                            expect(',');
+                            int y = number();
+                            expect('>');
+                            if (da.contains(x) && db.contains(y)) {
+                                t.add(x, y);
+                            }
+                        } while (accept(','));
+                        expect('}');
+                    }
+                } else {
+                    String list = word();
+                    t = tuples.get(list);
+                    if (t == null) {
+                        throw error("unknown tuple list " + list);
+                    }
+                }
+                expect(')');
+                if (negative) {
+                    t = complement(t, da, db);
+                }
+                constraints.add(new BinaryConstraint(a, b, t));
+            } else if ((name.equals("sumleq") || name.equals("sumgeq")) && objective != null) {
+                // definition of the objective
+                for (int depth = 1; depth > 0; ) {
+                    int c = read();
+                    if (c < 0) {
+                        throw error("unexpected end of file");
+                    }
+                    depth += c == '(' ? 1 : c == ')' ? -1 : 0;
+                }
+            } else {
+                throw error("unsupported constraint " + name);
+            }
+        }
+    }
+}
+
+/*
+ * Reads the part of XCSP3 that maps onto a Problem: integer <var>s
+ * with a range or list domain and binary <extension> constraints,
+ * with supports or conflicts (* standing for any value)
+ * Objectives are skipped, as the objective is the sum of the variables
+ */
+class XcspReader extends InstanceReader {
+
+    private static final int ANY = Integer.MIN_VALUE; // * in a tuple
+
+    private Map<String, Variable> vars = new LinkedHashMap<String, Variable>();
+    private List<BinaryConstraint> constraints = new ArrayList<BinaryConstraint>();
+    private Map<String, String> attrs = new HashMap<String, String>(); // of the last tag
+    private boolean empty; // the last tag was <.../>
+
+    public XcspReader(String fileName, Options o) throws IOException {
+        super(fileName, o);
+    }
+
+    protected Problem parse() throws IOException {
+        String tag;
+        while ((tag = nextTag()) != null) {
+            if (tag.startsWith("/") || tag.equals("instance") || tag.equals("variables")
+                    || tag.equals("constraints") || tag.equals("block")) {
+                continue;
+            } else if (tag.equals("var")) {
+                var();
+            } else if (tag.equals("extension")) {
+                extension();
+            } else if (tag.equals("objectives")) {
+                objectives();
+            } else if (tag.equals("annotations")) {
+                skip();
+            } else {
+                throw error("unsupported element <" + tag + ">");
+            }
+        }
+        return problem(new ArrayList<Variable>(vars.values()), constraints);
+    }
+
+    /*
+     * Skip text up to the next tag and read it
+     * @return its name, prefixed by / if closing,
+     * null at end of file
+     */
+    private String nextTag() throws IOException {
+        while (true) {
+            int c = read();
+            while (c >= 0 && c != '<') {
+                c = read();
+            }
+            if (c < 0) {
+                return null;
+            }
+            if (peek() == '?' || peek() == '!') {
+                // declaration or comment, can't nest tags
+                int dashes = 0;
+                boolean comment = read() == '!' && peek() == '-';
+                for (c = read(); c >= 0 && (c != '>' || comment && dashes < 2); c = read()) {
+                    dashes = c == '-' ? dashes + 1 : 0;
+                }
+                continue;
+            }
+            boolean closing = accept('/');
+            String name = word();
+            attrs.clear();
+            while (true) {
+                if (accept('/')) {
+                    expect('>');
+                    empty = true;
+                    break;
+                }
+                if (accept('>')) {
+                    empty = false;
+                    break;
+                }
+                String key = word();
+                expect('=');
+                skipSpace();
+                int quote = read();
+                StringBuilder sb = new StringBuilder();
+                for (c = read(); c != quote; c = read()) {
+                    if (c < 0) {
+                        throw error("unexpected end of file");
+                    }
+                    sb.append((char) c);
+                }
+                attrs.put(key, sb.toString());
+            }
+            return closing ? "/" + name : name;
+        }
+    }
+
+    private void expectTag(String tag) throws IOException {
+        if (!tag.equals(nextTag())) {
+            throw error("expected <" + tag + ">");
+        }
+    }
+
+    // skip the element just opened
+    private void skip() throws IOException {
+        for (int depth = empty ? 0 : 1; depth > 0; ) {
+            String tag = nextTag();
+            if (tag == null) {
+                throw error("unexpected end of file");
+            }
+            if (tag.startsWith("/")) {
+                depth--;
+            } else if (!empty) {
+                depth++;
+            }
+        }
+    }
+
+    private boolean atTag() throws IOException {
+        skipSpace();
+        return peek() == '<' || peek() < 0;
+    }
+
+    private void var() throws IOException {
+        String id = attrs.get("id");
+        String type = attrs.get("type");
+        if (type != null && !type.equals("integer")) {
+            throw error(id + ": unsupported variable type " + type);
+        }
+        Domain d;
+        if (attrs.containsKey("as")) {
+            d = variable(attrs.get("as")).getDomain().copy();
+            if (!empty) {
+                expectTag("/var");
+            }
+        } else {
+            // values and ranges, e.g. 0..3 7 9..10
+            List<int[]> ranges = new ArrayList<int[]>();
+            int l = Integer.MAX_VALUE;
+            int h = Integer.MIN_VALUE;
+            while (!empty && !atTag()) {
+                int x = number();
+                int y = x;
+                if (accept('.')) {
+                    expect('.');
+                    y = number();
+                }
+                ranges.add(new int[] { x, y });
+                l = Math.min(l, x);
+                h = Math.max(h, y);
+            }
+            if (!empty) {
+                expectTag("/var");
+            }
+            long[] bits = new long[h < l ? 0 : ((h - l) >>> 6) + 1];
+            for (int[] r : ranges) {
+                for (int x = r[0]; x <= r[1]; x++) {
+                    bits[(x - l) >>> 6] |= 1L << (x - l);
+                }
+            }
+            d = InstanceFile.domain(l, h, bits, o.listDomains);
+        }
+        vars.put(id, new Variable(id, d));
+    }
+
+    private Variable variable(String id) throws IOException {
+        Variable v = vars.get(id);
+        if (v == null) {
+            throw error("unknown variable " + id);
+        }
+        return v;
+    }
+
+    private void extension() throws IOException {
+        Variable a = null;
+        Variable b = null;
+        String tag;
+        while (!(tag = nextTag()).equals("/extension")) {
+            if (tag.equals("list")) {
+                List<Variable> scope = new ArrayList<Variable>();
+                while (!atTag()) {
+                    scope.add(variable(word()));
+                }
+                if (scope.size() != 2) {
+                    throw error("only binary extension constraints are supported");
+                }
+                a = scope.get(0);
+                b = scope.get(1);
+                expectTag("/list");
+            } else if (tag.equals("supports") || tag.equals("conflicts")) {
+                if (a == null) {
+                    throw error("<" + tag + "> before <list>");
+                }
+                Domain da = a.getDomain();
+                Domain db = b.getDomain();
+                boolean conflicts = tag.equals("conflicts");
+                Table t = conflicts ? new BitTable(da.getMin(), da.getMax(), db.getMin(), db.getMax())
+                        : newTable(da, db);
+                while (!empty && !atTag()) {
+                    expect('(');
+                    int x = value();
+                    expect(',');
+                    int y = value();
+                    expect(')');
+                    add(t, x, y, da, db);
+                }
+                if (!empty) {
+                    expectTag("/" + tag);
+                }
+                if (conflicts) {
+                    t = complement(t, da, db);
+                }
+                constraints.add(new BinaryConstraint(a, b, t));
+            } else {
+                throw error("unsupported element <" + tag + "> in <extension>");
+            }
+        }
+    }
+
+    private int value() throws IOException {
+        return accept('*') ? ANY : number();
+    }
+
+    /*
+     * The problems are solved for the largest sum of their
+     * variables: accept only that objective, written
+     * <maximize type="sum"><list>...</list></maximize>
+     * (with coefficients 1 if any) or <maximize>sum(...)</maximize>
+     */
+    private void objectives() throws IOException {
+        String tag;
+        int count = 0;
+        while (!"/objectives".equals(tag = nextTag())) {
+            if (tag == null) {
+                throw error("unexpected end of file");
+            }
+            if (!tag.equals("maximize") || empty || ++count > 1) {
+                throw error("only maximizing the sum of the variables is supported");
+            }
+            List<String> terms = new ArrayList<String>();
+            String type = attrs.get("type");
+            if (type == null) {
+                if (!word().equals("sum")) {
+                    throw error("only maximizing the sum of the variables is supported");
+                }
+                expect('(');
+                do {
+                    terms.add(word());
+                } while (accept(','));
+                expect(')');
+                expectTag("/maximize");
+            } else if (type.equals("sum")) {
+                expectTag("list");
+                while (!atTag()) {
+                    terms.add(word());
+                }
+                expectTag("/list");
+                tag = nextTag();
+                if ("coeffs".equals(tag)) {
+                    while (!atTag()) {
+                        if (number() != 1) {
+                            throw error("only maximizing the sum of the variables is supported");
+                        }
+                    }
+                    expectTag("/coeffs");
+                    tag = nextTag();
+                }
+                if (!"/maximize".equals(tag)) {
+                    throw error("expected </maximize>");
+                }
+            } else {
+                throw error("only maximizing the sum of the variables is supported");
+            }
+            Set<String> seen = new HashSet<String>(terms);
+            for (String id : terms) {
+                variable(id);
+            }
+            if (seen.size() != terms.size() || seen.size() != vars.size()) {
+                throw error("only maximizing the sum of all the variables is supported");
+            }
+        }
+    }
+
+    /*
+     * Add the pairs (x, y) of da x db to t, ANY matching every value
+     */
+    private static void add(Table t, int x, int y, Domain da, Domain db) {
+        if (x == ANY) {
+            for (int v = da.getMin(); v != Integer.MAX_VALUE; v = da.next(v)) {
+                add(t, v, y, da, db);
+            }
+        } else if (y == ANY) {
+            for (int v = db.getMin(); v != Integer.MAX_VALUE; v = db.next(v)) {
+                add(t, x, v, da, db);
+            }
+        } else if (da.contains(x) && db.contains(y)) {
+            t.add(x, y);
+        }
+    }
+}
+
+/*
+ * Undo log of the values removed from domains during search
+ * Every removal is recorded, mark() opens a new decision level
+ * and undo() puts back what has been removed since the last mark
+ */
+class Trail {
+
+    private Variable[] vars;
+    private int[] vals;
+    private int size;
+    private int[] marks;
+    private int levels;
+    private Problem.IncrementalEvaluator[] listeners;
+
+    public Trail() {
+        vars = new Variable[256];
+        vals = new int[256];
+        size = 0;
+        marks = new int[32];
+        levels = 0;
+        listeners = new Problem.IncrementalEvaluator[0];
+    }
+
+    /*
+     * Notify e of removals, assignments and backtracks
+     */
+    public void addListener(Problem.IncrementalEvaluator e) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = e;
+    }
+
+    private void push(Variable v, int val) {
+        if (size == vals.length) {
+            vars = Arrays.copyOf(vars, 2 * size);
+            vals = Arrays.copyOf(vals, 2 * size);
+        }
+        vars[size] = v;
+        vals[size] = val;
+        size++;
+    }
+
+    /*
+     * Remove val from the domain of v
+     */
+    public void remove(Variable v, int val) {
+        Domain d = v.getDomain();
+        int max = d.getMax();
+        if (d.remove(val)) {
+            push(v, val);
+            if (val == max) {
+                for (Problem.IncrementalEvaluator e : listeners) {
+                    e.maxRemoved(v, max);
+                }
+            }
+        }
+    }
+
+    /*
+     * Reduce the domain of v to {val}
+     */
+    public void assign(Variable v, int val) {
+        Domain d = v.getDomain();
+        int max = d.getMax();
+        int x = d.getMin();
+        while (x != Integer.MAX_VALUE) {
+            int following = d.next(x);
+            if (x != val && d.remove(x)) {
+                push(v, x);
+            }
+            x = following;
+        }
+        for (Problem.IncrementalEvaluator e : listeners) {
+            e.assigned(v, max);
+        }
+    }
+
+    public void mark() {
+        if (levels == marks.length) {
+            marks = Arrays.copyOf(marks, 2 * levels);
+        }
+        marks[levels++] = size;
+        for (Problem.IncrementalEvaluator e : listeners) {
+            e.mark();
+        }
+    }
+
+    /*
+     * Restore domains as they were at the last mark
+     */
+    public void undo() {
+        int m = marks[--levels];
+        while (size > m) {
+            size--;
+            vars[size].getDomain().add(vals[size]);
+            vars[size] = null;
+        }
+        for (Problem.IncrementalEvaluator e : listeners) {
+            e.undo();
+        }
+    }
+}
+
+/*
+ * Queue based arc consistency (AC-3)
+ * with residual supports (AC-2001)
+ * Arc 2i is constraint i, arc 2i+1 its transposed view
+ */
+class AC2001 {
+
+    private BinaryConstraint[] arcs;
+    private int[][] arcsTo; // arcs (x, v) indexed by v: revise them when v shrinks
+    private int[][] residues; // last support found for each value of an arc source
+    private int[] residueBase; // value of residues[k][0]
+    private int[] queue; // circular queue of arcs
+    private boolean[] queued;
+    private int head;
+    private int count;
+    private Trail trail;
+    private Budget budget; // its clock is read every POLL revisions
+    private int polls;
+    private int wipeout; // constraint of the arc that failed last, -1 if out of time
+    private int revisions; // since the last clearCounts(), if Stats.ENABLED
+    private int checks;
+    private int pruned;
+
+    private static final int POLL = 64;
+
+    public AC2001(List<Variable> vars, List<BinaryConstraint> constraints,
+            List<BinaryConstraint> constraints_t, Trail t, Budget b) {
+        trail = t;
+        budget = b;
+        int m = constraints.size();
+        arcs = new BinaryConstraint[2 * m];
+        for (int i = 0; i < m; i++) {
+            arcs[2 * i] = constraints.get(i);
+            arcs[2 * i + 1] = constraints_t.get(i);
+        }
+        // build the variable to incident arcs index
+        int[] deg = new int[vars.size()];
+        for (BinaryConstraint c : arcs) {
+            deg[c.getB().getIndex()]++;
+        }
+        arcsTo = new int[vars.size()][];
+        for (int v = 0; v < deg.length; v++) {
+            arcsTo[v] = new int[deg[v]];
+            deg[v] = 0;
+        }
+        for (int k = 0; k < arcs.length; k++) {
+            int v = arcs[k].getB().getIndex();
+            arcsTo[v][deg[v]++] = k;
+        }
+        residues = new int[arcs.length][];
+        residueBase = new int[arcs.length];
+        for (int k = 0; k < arcs.length; k++) {
+            Domain d = arcs[k].getA().getDomain();
+            residueBase[k] = d.getMin();
+            residues[k] = new int[d.empty() ? 0 : d.getMax() - d.getMin() + 1];
+            Arrays.fill(residues[k], Integer.MAX_VALUE);
+        }
+        queue = new int[arcs.length];
+        queued = new boolean[arcs.length];
+        head = 0;
+        count = 0;
+    }
+
+    private void push(int k) {
+        if (!queued[k]) {
+            queued[k] = true;
+            queue[(head + count) % queue.length] = k;
+            count++;
+        }
+    }
+
+    private int pop() {
+        int k = queue[head];
+        head = (head + 1) % queue.length;
+        count--;
+        queued[k] = false;
+        return k;
+    }
+
+    private void clear() {
+        while (count > 0) {
+            pop();
+        }
+    }
+
+    /*
+     * Schedule every arc for revision
+     */
+    public void enqueueAll() {
+        for (int k = 0; k < arcs.length; k++) {
+            push(k);
+        }
+    }
+
+    /*
+     * Schedule the arcs whose support lies in the domain of v
+     */
+    public void enqueue(Variable v) {
+        for (int k : arcsTo[v.getIndex()]) {
+            push(k);
+        }
+    }
+
+    /*
+     * @return index of the constraint whose arc wiped out
+     * a domain in the last failed propagate(),
+     * -1 if it stopped because the budget ran out
+     */
+    public int getWipeout() {
+        return wipeout;
+    }
+
+    public int getRevisions() {
+        return revisions;
+    }
+
+    public int getChecks() {
+        return checks;
+    }
+
+    public int getPruned() {
+        return pruned;
+    }
+
+    public void clearCounts() {
+        revisions = 0;
+        checks = 0;
+        pruned = 0;
+    }
+
+    /*
+     * Revise queued arcs until the queue is empty
+     * @return false if a domain has been wiped out
+     * or the budget ran out
+     */
+    public boolean propagate() {
+        while (count > 0) {
+            if (++polls % POLL == 0 && budget.expired()) {
+                clear();
+                wipeout = -1;
+                return false;
+            }
+            int k = pop();
+            if (revise(k)) {
+                Variable a = arcs[k].getA();
+                if (a.getDomain().empty()) {
+                    clear();
+                    wipeout = k >> 1;
+                    return false;
+                }
+                // a shrank: revise arcs towards a, except the reverse of k
+                for (int k2 : arcsTo[a.getIndex()]) {
+                    if (k2 != (k ^ 1)) {
+                        push(k2);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Remove from the domain of the source of arc k the values
+     * without support, skipping those whose residue is still valid
+     * @return true if the domain changed
+     */
+    private boolean revise(int k) {
+        BinaryConstraint c = arcs[k];
+        Domain da = c.getA().getDomain();
+        Domain db = c.getB().getDomain();
+        int[] res = residues[k];
+        int base = residueBase[k];
+        boolean changed = false;
+        if (Stats.ENABLED) {
+            revisions++;
+        }
+        int x = da.getMin();
+        while (x != Integer.MAX_VALUE) {
+            int following = da.next(x);
+            int i = x - base;
+            boolean cached = i >= 0 && i < res.length;
+            if (!cached || !db.contains(res[i])) {
+                int y = c.findSupport(x, db);
+                if (Stats.ENABLED) {
+                    checks++;
+                }
+                if (y == Integer.MAX_VALUE) {
+                    trail.remove(c.getA(), x);
+                    changed = true;
+                    if (Stats.ENABLED) {
+                        pruned++;
+                    }
+                } else if (cached) {
+                    res[i] = y;
+                }
+            }
+            x = following;
+        }
+        return changed;
+    }
+}
+
+/*
+ * The constraint graph of a problem
+ * For each variable, the arcs leaving it (the constraints it is
+ * the first variable of, plus transposed views) and their
+ * constraint index, with failure-driven constraint weights
+ */
+class ConstraintGraph {
+
+    private BinaryConstraint[][] arcs; // arcs[v]: arcs (v, w)
+    private int[][] ids; // ids[v][k]: constraint index of arcs[v][k]
+    private int[] weights; // constraint weights for dom/wdeg
+
+    public ConstraintGraph(List<Variable> vars, List<BinaryConstraint> constraints,
+            List<BinaryConstraint> constraints_t) {
+        int[] deg = new int[vars.size()];
+        for (BinaryConstraint c : constraints) {
+            deg[c.getA().getIndex()]++;
+            deg[c.getB().getIndex()]++;
+        }
+        arcs = new BinaryConstraint[vars.size()][];
+        ids = new int[vars.size()][];
+        for (int v = 0; v < deg.length; v++) {
+            arcs[v] = new BinaryConstraint[deg[v]];
+            ids[v] = new int[deg[v]];
+            deg[v] = 0;
+        }
+        for (int i = 0; i < constraints.size(); i++) {
+            BinaryConstraint c = constraints.get(i);
+            int a = c.getA().getIndex();
+            int b = c.getB().getIndex();
+            arcs[a][deg[a]] = c;
+            ids[a][deg[a]++] = i;
+            arcs[b][deg[b]] = constraints_t.get(i);
+            ids[b][deg[b]++] = i;
+        }
+        weights = new int[constraints.size()];
+        Arrays.fill(weights, 1);
+    }
+
+    /*
+     * @return arcs (v, w) for every neighbour w of v
+     */
+    public BinaryConstraint[] arcsFrom(int v) {
+        return arcs[v];
+    }
+
+    /*
+     * @return constraint index of each arc of arcsFrom(v)
+     */
+    public int[] constraintIds(int v) {
+        return ids[v];
+    }
+
+    public int degree(int v) {
+        return arcs[v].length;
+    }
+
+    public int weight(int c) {
+        return weights[c];
+    }
+
+    /*
+     * Constraint c caused a failure
+     */
+    public void bump(int c) {
+        weights[c]++;
+    }
+
+    public void copyWeights(ConstraintGraph g) {
+        System.arraycopy(g.weights, 0, weights, 0, weights.length);
+    }
+}
+
+/*
+ * Variable ordering heuristic for branch&bound
+ * order[0..lev-1] are the variables already assigned,
+ * select() picks the next one among order[lev..]
+ */
+abstract class VarOrder {
+
+    protected SplittableRandom random; // breaks ties, null: the first wins
+
+    /*
+     * Break ties at random (restarts), or not with null
+     */
+    public void setRandom(SplittableRandom r) {
+        random = r;
+    }
+
+    /*
+     * Reservoir sampling of the tied candidates:
+     * @return true if the ties-th tied candidate replaces the best one
+     */
+    protected boolean takeTie(int ties) {
+        return random != null && random.nextInt(ties) == 0;
+    }
+
+    /*
+     * @return the same ordering for another search, which may run
+     * on another thread: its ties are broken by a stream split from
+     * this one, if any
+     */
+    public VarOrder copy() {
+        VarOrder c = byName(name());
+        if (random != null) {
+            c.setRandom(random.split());
+        }
+        return c;
+    }
+
+    /*
+     * @return the position in order of the variable to branch on
+     * pos[v] is the position in order of the variable of index v
+     */
+    public abstract int select(Variable[] order, int lev, int[] pos, ConstraintGraph g);
+
+    public abstract String name();
+
+    /*
+     * @return the ordering called name, null if there is none
+     */
+    public static VarOrder byName(String name) {
+        if (name.equals("lex")) {
+            return new LexOrder();
+        }
+        if (name.equals("dom")) {
+            return new DomOrder();
+        }
+        if (name.equals("domdeg")) {
+            return new DomDegOrder(false);
+        }
+        if (name.equals("domwdeg")) {
+            return new DomDegOrder(true);
+        }
+        return null;
+    }
+}
+
+/*
+ * Static order: variables in creation order
+ */
+class LexOrder extends VarOrder {
+
+    public int select(Variable[] order, int lev, int[] pos, ConstraintGraph g) {
+        return lev;
+    }
+
+    public String name() {
+        return "lex";
+    }
+}
+
+/*
+ * Smallest domain first
+ */
+class DomOrder extends VarOrder {
+
+    public int select(Variable[] order, int lev, int[] pos, ConstraintGraph g) {
+        int best = lev;
+        int bestSize = order[lev].getDomain().size();
+        int ties = 1;
+        for (int i = lev + 1; i < order.length; i++) {
+            int size = order[i].getDomain().size();
+            if (size < bestSize) {
+                best = i;
+                bestSize = size;
+                ties = 1;
+            } else if (size == bestSize && takeTie(++ties)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public String name() {
+        return "dom";
+    }
+}
+
+/*
+ * Smallest ratio between domain size and degree
+ * The degree is either the static one in the constraint graph (dom/deg)
+ * or the sum of the weights of the constraints towards unassigned
+ * variables (dom/wdeg)
+ */
+class DomDegOrder extends VarOrder {
+
+    private boolean weighted;
+
+    public DomDegOrder(boolean weighted) {
+        this.weighted = weighted;
+    }
+
+    private long degree(Variable v, int lev, int[] pos, ConstraintGraph g) {
+        int i = v.getIndex();
+        if (!weighted) {
+            return g.degree(i);
+        }
+        BinaryConstraint[] arcs = g.arcsFrom(i);
+        int[] ids = g.constraintIds(i);
+        long wdeg = 0;
+        for (int k = 0; k < arcs.length; k++) {
+            if (pos[arcs[k].getB().getIndex()] >= lev) {
+                wdeg += g.weight(ids[k]);
+            }
+        }
+        return wdeg;
+    }
+
+    public int select(Variable[] order, int lev, int[] pos, ConstraintGraph g) {
+        int best = lev;
+        long bestSize = order[lev].getDomain().size();
+        long bestDeg = degree(order[lev], lev, pos, g);
+        int ties = 1;
+        for (int i = lev + 1; i < order.length; i++) {
+            long size = order[i].getDomain().size();
+            long deg = degree(order[i], lev, pos, g);
+            // size / deg < bestSize / bestDeg, variables without degree last
+            if (size * bestDeg < bestSize * deg) {
+                best = i;
+                bestSize = size;
+                bestDeg = deg;
+                ties = 1;
+            } else if (size * bestDeg == bestSize * deg && takeTie(++ties)) {
+                best = i;
+                bestSize = size;
+                bestDeg = deg;
+            }
+        }
+        return best;
+    }
+
+    public String name() {
+        return weighted ? "domwdeg" : "domdeg";
+    }
+}
+
+/*
+ * Search and propagation counters of a solve, shared by the
+ * workers of a parallel search (LongAdders, so they don't contend)
+ * Counting is off unless the JVM runs with -Dsolver.stats=true
+ * (or the -stats option): ENABLED is a constant once the class is
+ * loaded, so the JIT drops the code guarded by it
+ */
+class Stats {
+
+    public static final boolean ENABLED = Boolean.getBoolean("solver.stats");
+
+    private LongAdder checks = new LongAdder(); // support searches and constraint checks
+    private LongAdder revisions = new LongAdder();
+    private LongAdder pruned = new LongAdder(); // values removed by propagation
+    private LongAdder fixpoints = new LongAdder();
+    private LongAdder wipeouts = new LongAdder();
+    private LongAdder improvements = new LongAdder(); // incumbent updates
+    private LongAdder[] nodes; // nodes[lev]: nodes visited at level lev
+
+    /*
+     * Counters of every problem while ENABLED is off: nothing
+     * counts then, so they share one instance with no depth
+     */
+    public static final Stats NONE = new Stats(0);
+
+    public Stats(int depths) {
+        nodes = new LongAdder[depths];
+        for (int i = 0; i < depths; i++) {
+            nodes[i] = new LongAdder();
+        }
+    }
+
+    public void node(int lev) {
+        nodes[lev].increment();
+    }
+
+    public void check(int n) {
+        checks.add(n);
+    }
+
+    /*
+     * Count a propagation that ended at a fixpoint
+     * or, if wipeout, emptying a domain
+     */
+    public void fixpoint(int revisions, int checks, int pruned, boolean wipeout) {
+        this.revisions.add(revisions);
+        this.checks.add(checks);
+        this.pruned.add(pruned);
+        if (wipeout) {
+            wipeouts.increment();
+        } else {
+            fixpoints.increment();
+        }
+    }
+
+    public void improvement() {
+        improvements.increment();
+    }
+
+    public long getChecks() {
+        return checks.sum();
+    }
+
+    public long getRevisions() {
+        return revisions.sum();
+    }
+
+    public long getPruned() {
+        return pruned.sum();
+    }
+
+    public long getFixpoints() {
+        return fixpoints.sum();
+    }
+
+    public long getWipeouts() {
+        return wipeouts.sum();
+    }
+
+    public long getImprovements() {
+        return improvements.sum();
+    }
+
+    public int getDepths() {
+        return nodes.length;
+    }
+
+    public long getNodes(int lev) {
+        return nodes[lev].sum();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Checks: ").append(getChecks()).append('\n');
+        sb.append("Revisions: ").append(getRevisions()).append('\n');
+        sb.append("Pruned values: ").append(getPruned()).append('\n');
+        sb.append("Fixpoints: ").append(getFixpoints()).append('\n');
+        sb.append("Wipeouts: ").append(getWipeouts()).append('\n');
+        sb.append("Improvements: ").append(getImprovements()).append('\n');
+        sb.append("Nodes per depth:");
+        for (int i = 0; i < nodes.length; i++) {
+            sb.append(' ').append(getNodes(i));
+        }
+        return sb.toString();
+    }
+}
+
+/*
+ * JFR event: a worker installed a better solution
+ */
+@Name("solver.Incumbent")
+@Label("Incumbent Update")
+@Category("Solver")
+class IncumbentEvent extends Event {
+
+    @Label("Value")
+    int value;
+
+    @Label("Nodes Visited")
+    int nodes; // by the worker so far
+}
+
+/*
+ * JFR event: a propagation reached its fixpoint or wiped out
+ * a domain; its duration is the time spent propagating
+ */
+@Name("solver.Fixpoint")
+@Label("Propagation Fixpoint")
+@Category("Solver")
+class FixpointEvent extends Event {
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Revisions")
+    int revisions;
+
+    @Label("Pruned Values")
+    int pruned;
+
+    @Label("Wipeout")
+    boolean wipeout;
+}
+
+/*
+ * Node and wall clock budget of a search, shared by the workers
+ * of a parallel search. The search stops cooperatively: workers
+ * ask exhausted() before each node and unwind once it is true,
+ * cancel() stops it from another thread
+ */
+class Budget {
+
+    private long nodeLimit; // 0 for no limit
+    private long timeLimit; // ms, 0 for no limit
+    private AtomicLong nodes = new AtomicLong();
+    private long deadline; // System.nanoTime() value
+    private volatile boolean stopped;
+
+    public Budget(long nodeLimit, long timeLimit) {
+        this.nodeLimit = nodeLimit;
+        this.timeLimit = timeLimit;
+    }
+
+    /*
+     * @return an unspent budget with the same limits
+     */
+    public Budget renew() {
+        return new Budget(nodeLimit, timeLimit);
+    }
+
+    public boolean isLimited() {
+        return nodeLimit > 0 || timeLimit > 0;
+    }
+
+    /*
+     * Start the clock, before the workers start
+     */
+    public void start() {
+        deadline = System.nanoTime() + timeLimit * 1000000L;
+    }
+
+    /*
+     * Spend a node
+     * @return true if the search has to stop instead
+     */
+    public boolean exhausted() {
+        if (stopped) {
+            return true;
+        }
+        if (nodeLimit > 0 && nodes.incrementAndGet() > nodeLimit
+                || timeLimit > 0 && System.nanoTime() - deadline > 0) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /*
+     * Check the clock without spending a node, from loops
+     * that aren't search nodes (propagation, preprocessing)
+     * @return true if the search has to stop
+     */
+    public boolean expired() {
+        if (!stopped && timeLimit > 0 && System.nanoTime() - deadline > 0) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    public void cancel() {
+        stopped = true;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+}
+
+/*
+ * Best solution found so far and its value (the bound)
+ * Shared by all the workers of a parallel search
+ */
+class Incumbent {
+
+    private AtomicInteger bound = new AtomicInteger(Integer.MIN_VALUE);
+    private List<Integer> sol = new ArrayList<Integer>();
+    private Problem.ProgressListener listener; // told of every new solution
+    private long start; // System.nanoTime() at the start of the search
+
+    public int getBound() {
+        return bound.get();
+    }
+
+    /*
+     * A search starts: time the solutions from now
+     */
+    public synchronized void start(Problem.ProgressListener l) {
+        listener = l;
+        start = System.nanoTime();
+    }
+
+    /*
+     * Install s as the best solution if value beats the bound
+     * @return true if s has been installed
+     */
+    public synchronized boolean offer(int value, List<Integer> s) {
+        if (value <= bound.get()) {
+            return false;
+        }
+        sol = s;
+        bound.set(value);
+        if (listener != null) {
+            listener.improved(value, s, (System.nanoTime() - start) / 1000000);
+        }
+        return true;
+    }
+
+    public synchronized List<Integer> getSol() {
+        return sol;
+    }
+}
+
+/*
+ * A CSP optimization problem
+ */
+class Problem {
+
+    public interface Evaluator {
+        int eval(List<Variable> vars);
+		void toMinion(MinionWriter w, List<Variable> vars);
+		void toMinionVariable(MinionWriter w, List<Variable> vars);
+		String minionName();
+    }
+
+    /*
+     * An evaluator that follows domain changes
+     * instead of scanning every domain at each node
+     * It is notified by the trail during propagation and search
+     */
+    public interface IncrementalEvaluator extends Evaluator {
+        /*
+         * @return a new evaluator of the same kind, for another problem copy
+         */
+        IncrementalEvaluator copy();
+
+        /*
+         * Compute the value from scratch
+         */
+        void init(List<Variable> vars);
+
+        /*
+         * oldMax, the maximum of the domain of v, has been removed
+         */
+        void maxRemoved(Variable v, int oldMax);
+
+        /*
+         * The domain of v, whose maximum was oldMax, is now a singleton
+         */
+        void assigned(Variable v, int oldMax);
+
+        /*
+         * Save the current value (new decision level)
+         */
+        void mark();
+
+        /*
+         * Go back to the value saved by the last mark()
+         */
+        void undo();
+
+        /*
+         * @return the value on the current domains
+         */
+        int value();
+    }
+
+    /*
+     * Told of every better solution found by solve(),
+     * in increasing order of value
+     */
+    public interface ProgressListener {
+        /*
+         * elapsed: ms since the search started
+         */
+        void improved(int value, List<Integer> sol, long elapsed);
+    }
+    
+    private List<Variable> vars;
+    private List<BinaryConstraint> constraints;
+    private List<BinaryConstraint> constraints_t; // transposed views of constraints
+    private Evaluator heuristic;
+    private Evaluator objectiveFunction;
+    private IncrementalEvaluator incHeuristic; // heuristic, if incremental
+    private IncrementalEvaluator incObjective; // objectiveFunction, if incremental
+    private Incumbent incumbent; // best solution and bound
+    private Budget budget; // stops the search, shared like incumbent
+    private ProgressListener listener;
+    private boolean propagation;
+    private boolean useAC3; // AC-3/AC-2001 instead of AC-1
+    private boolean forwardChecking; // revise only the arcs into the assigned variable
+    private boolean rootAC; // arc consistency once, before the search
+    private int sacRemoved; // values removed by the last preprocessing
+    private int nsRemoved;
+    private double spaceBefore; // log10 of the product of the domain sizes
+    private double spaceAfter;
+    private AC2001 ac3; // built on first use
+    private boolean costFiltering; // prune values that can't beat the bound
+    private boolean decompose; // solve connected components separately
+    private long cutoff; // nodes of the current run, 0 for no cutoff
+    private long runNodes; // nodes visited by the current run
+    private boolean cut; // the current run reached its cutoff
+    private BucketElimination elim; // if the last search was bucket elimination
+    private LargeNeighbourhoodSearch lns; // if the last search was an LNS
+    private SplittableRandom random; // for restarts and portfolio members
+    private boolean proven; // the last search explored the whole space
+    private Options opts; // settings of -pre, -restarts, -portfolio, -elim, -ls and -lns
+    private Trail trail; // removals to undo on backtrack
+    private Variable[] order; // order[0..lev-1] are assigned at level lev
+    private int[] pos; // position in order of each variable
+    private VarOrder varOrder;
+    private ConstraintGraph graph; // built on first use
+    private int wipeout; // constraint that wiped out a domain in ac1(), -1 if none
+    private int visitedNodes; // track number of nodes visited by bb()
+    private Stats stats; // shared with the parallel workers
+    private int revisions; // by ac1() since the last fixpoint, if Stats.ENABLED
+    private int checks;
+    private int pruned;
+    private int threads; // workers used by solve()
+    private int splitDepth; // levels whose subtrees become parallel tasks
+
+    public Problem(Evaluator h, Evaluator of, boolean prop) {
+        heuristic = h;
+        objectiveFunction = of;
+        constraints = new ArrayList<BinaryConstraint>();
+        constraints_t = new ArrayList<BinaryConstraint>();
+        incumbent = new Incumbent();
+        budget = new Budget(0, 0);
+        propagation = prop;
+        useAC3 = false;
+        trail = new Trail();
+        if (h instanceof IncrementalEvaluator) {
+            incHeuristic = (IncrementalEvaluator) h;
+            trail.addListener(incHeuristic);
+        }
+        if (of instanceof IncrementalEvaluator) {
+            incObjective = (IncrementalEvaluator) of;
+            if (incObjective != incHeuristic) {
+                trail.addListener(incObjective);
+            }
+        }
+        varOrder = new LexOrder();
+        visitedNodes = 0;
+        threads = 1;
+        splitDepth = 0;
+        random = new SplittableRandom();
+        opts = new Options();
+    }
+
+    public Problem(Evaluator h, Evaluator of, Options o) {
+        this(h, of, !o.propLevel().equals("none"));
+        useAC3 = o.ac3;
+        forwardChecking = o.propLevel().equals("fc") || o.propLevel().equals("rootac");
+        rootAC = o.propLevel().equals("rootac");
+        costFiltering = o.costFiltering;
+        varOrder = VarOrder.byName(o.varOrder);
+        threads = o.threads;
+        splitDepth = o.splitDepth;
+        budget = new Budget(o.nodeLimit, o.timeLimit);
+        decompose = o.decompose;
+        opts = o.copy();
+        random = o.seeded ? new SplittableRandom(o.seed) : new SplittableRandom();
+        if (opts.restarts != null) {
+            varOrder.setRandom(random.split());
+        }
+    }
+
+    /*
+     * Make a copy of p for a parallel worker:
+     * variables and domains are copied, constraint tables
+     * and the incumbent are shared
+     */
+    private Problem(Problem p) {
+        this(copyEvaluator(p.heuristic), copyEvaluator(p.objectiveFunction), p.propagation);
+        useAC3 = p.useAC3;
+        forwardChecking = p.forwardChecking;
+        costFiltering = p.costFiltering;
+        varOrder = p.varOrder.copy();
+        threads = p.threads;
+        splitDepth = p.splitDepth;
+        incumbent = p.incumbent;
+        budget = p.budget;
+        opts = p.opts;
+        random = p.random.split();
+        List<Variable> copies = new ArrayList<Variable>();
+        for (Variable v : p.vars) {
+            copies.add(new Variable(v.getName(), v.getDomain().copy()));
+        }
+        setVariables(copies);
+        stats = p.stats;
+        for (int i = 0; i < p.constraints.size(); i++) {
+            BinaryConstraint bc = p.constraints.get(i);
+            Variable a = copies.get(bc.getA().getIndex());
+            Variable b = copies.get(bc.getB().getIndex());
+            constraints.add(bc.rebind(a, b));
+            constraints_t.add(p.constraints_t.get(i).rebind(b, a));
+        }
+        for (int i = 0; i < order.length; i++) {
+            order[i] = copies.get(p.order[i].getIndex());
+            pos[order[i].getIndex()] = i;
+        }
+        if (p.graph != null) {
+            // keep the weights learned so far
+            graph = new ConstraintGraph(vars, constraints, constraints_t);
+            graph.copyWeights(p.graph);
+        }
+    }
+
+    /*
+     * Make the subproblem of p over part, a connected component
+     * of its constraint graph: the variables of part and their
+     * domains are copied, constraint tables and the budget are shared
+     */
+    private Problem(Problem p, List<Variable> part) {
+        this(copyEvaluator(p.heuristic), copyEvaluator(p.objectiveFunction), p.propagation);
+        useAC3 = p.useAC3;
+        forwardChecking = p.forwardChecking;
+        costFiltering = p.costFiltering;
+        varOrder = p.varOrder.copy();
+        threads = p.threads;
+        splitDepth = p.splitDepth;
+        budget = p.budget;
+        int[] local = new int[p.vars.size()]; // index in part, -1 if not in it
+        Arrays.fill(local, -1);
+        List<Variable> copies = new ArrayList<Variable>();
+        for (Variable v : part) {
+            local[v.getIndex()] = copies.size();
+            copies.add(new Variable(v.getName(), v.getDomain().copy()));
+        }
+        setVariables(copies);
+        stats = p.stats;
+        for (int i = 0; i < p.constraints.size(); i++) {
+            BinaryConstraint bc = p.constraints.get(i);
+            int a = local[bc.getA().getIndex()];
+            int b = local[bc.getB().getIndex()];
+            if (a >= 0) { // then b is in part too
+                constraints.add(bc.rebind(copies.get(a), copies.get(b)));
+                constraints_t.add(p.constraints_t.get(i).rebind(copies.get(b), copies.get(a)));
+            }
+        }
+    }
+
+    /*
+     * @return an evaluator with its own state if e has one
+     */
+    private static Evaluator copyEvaluator(Evaluator e) {
+        if (e instanceof IncrementalEvaluator) {
+            return ((IncrementalEvaluator) e).copy();
+        }
+        return e;
+    }
+
+    public void setVariables(List<Variable> vars) {
+        this.vars = vars;
+        order = new Variable[vars.size()];
+        pos = new int[vars.size()];
+        for (int i = 0; i < vars.size(); i++) {
+            vars.get(i).setIndex(i);
+            order[i] = vars.get(i);
+            pos[i] = i;
+        }
+        stats = Stats.ENABLED ? new Stats(vars.size()) : Stats.NONE;
+        if (incHeuristic != null) {
+            incHeuristic.init(vars);
+        }
+        if (incObjective != null) {
+            incObjective.init(vars);
+        }
+    }
+
+    private int evalHeuristic() {
+        if (incHeuristic != null) {
+            return incHeuristic.value();
+        }
+        return heuristic.eval(vars);
+    }
+
+    private int evalObjectiveFunction() {
+        if (incObjective != null) {
+            return incObjective.value();
+        }
+        return objectiveFunction.eval(vars);
+    }
+
+    private boolean notFailed() {
+        for (Variable v : vars) {
+            if (v.getDomain().empty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getBound() {
+        return incumbent.getBound();
+    }
+
+    public void addConstraint(BinaryConstraint bc) {
+        constraints.add(bc);
+        constraints_t.add(bc.transpose());
+    }
+
+    public boolean doPropagation() {
+        return this.propagation;
+    }
+
+    /*
+     * The AC-1 propagation algorithm
+     * It stops early, leaving wipeout at -1, if the budget runs out
+     */
+    public void ac1() {
+        boolean changed = true;
+        wipeout = -1;
+        while (changed && !budget.expired()) {
+            changed = false;
+            for (int i = 0; i < constraints.size(); i++) {
+                BinaryConstraint bc = constraints.get(i);
+                if (Stats.ENABLED) {
+                    // revise() looks for a support of each value
+                    int before = bc.getA().getDomain().size() + bc.getB().getDomain().size();
+                    revisions += 2;
+                    checks += before;
+                    pruned += before;
+                }
+                boolean a = bc.revise(trail);
+                boolean b = constraints_t.get(i).revise(trail);
+                if (Stats.ENABLED) {
+                    pruned -= bc.getA().getDomain().size() + bc.getB().getDomain().size();
+                }
+                if (a || b) {
+                    changed = true;
+                    if (wipeout < 0 && (bc.getA().getDomain().empty()
+                            || bc.getB().getDomain().empty())) {
+                        wipeout = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Restore arc consistency after cv has been assigned
+     * at level lev
+     * @return false if a domain has been wiped out
+     */
+    private boolean propagate(Variable cv, int lev) {
+        if (!Stats.ENABLED) {
+            return propagateTo(cv, lev);
+        }
+        FixpointEvent e = new FixpointEvent();
+        e.begin();
+        boolean consistent = propagateTo(cv, lev);
+        fixpoint(e, lev, consistent);
+        return consistent;
+    }
+
+    private boolean propagateTo(Variable cv, int lev) {
+        if (forwardChecking) {
+            return forwardCheck(cv, lev);
+        }
+        if (!useAC3) {
+            ac1();
+            if (wipeout >= 0) {
+                graph.bump(wipeout);
+                return false;
+            }
+            return !budget.isStopped();
+        }
+        if (ac3 == null) {
+            ac3 = new AC2001(vars, constraints, constraints_t, trail, budget);
+        }
+        if (lev == 0) {
+            // nothing has been propagated yet
+            ac3.enqueueAll();
+        } else {
+            // the parent node is arc consistent
+            ac3.enqueue(cv);
+        }
+        if (!ac3.propagate()) {
+            if (ac3.getWipeout() >= 0) {
+                graph.bump(ac3.getWipeout());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Forward checking: remove from the domains of the unassigned
+     * neighbours of cv the values not compatible with its value
+     * @return false if a domain has been wiped out
+     */
+    private boolean forwardCheck(Variable cv, int lev) {
+        int i = cv.getIndex();
+        int val = cv.getDomain().getMax();
+        BinaryConstraint[] arcs = graph.arcsFrom(i);
+        int[] ids = graph.constraintIds(i);
+        for (int k = 0; k < arcs.length; k++) {
+            Variable w = arcs[k].getB();
+            if (pos[w.getIndex()] <= lev) {
+                continue; // assigned
+            }
+            Domain d = w.getDomain();
+            if (Stats.ENABLED) {
+                revisions++;
+                checks += d.size();
+            }
+            int x = d.getMin();
+            while (x != Integer.MAX_VALUE) {
+                int following = d.next(x);
+                if (!arcs[k].satisfied(val, x)) {
+                    trail.remove(w, x);
+                    if (Stats.ENABLED) {
+                        pruned++;
+                    }
+                }
+                x = following;
+            }
+            if (d.empty()) {
+                graph.bump(ids[k]);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Make the root node arc consistent, before the search
+     * @return false if a domain has been wiped out
+     */
+    private boolean propagateRoot() {
+        FixpointEvent e = null;
+        if (Stats.ENABLED) {
+            e = new FixpointEvent();
+            e.begin();
+        }
+        boolean consistent = arcConsistency();
+        if (Stats.ENABLED) {
+            fixpoint(e, 0, consistent);
+        }
+        return consistent;
+    }
+
+    /*
+     * Make every arc consistent, whatever the propagation level
+     * @return false if a domain has been wiped out
+     * or the budget ran out
+     */
+    private boolean arcConsistency() {
+        if (!useAC3) {
+            ac1();
+            return wipeout < 0 && !budget.isStopped();
+        }
+        if (ac3 == null) {
+            ac3 = new AC2001(vars, constraints, constraints_t, trail, budget);
+        }
+        ac3.enqueueAll();
+        return ac3.propagate();
+    }
+
+    /*
+     * Shrink the domains before the search, for at most opts.preTime ms:
+     * singleton arc consistency removes the values whose assignment
+     * wipes out a domain, then the values neighborhood substitutable
+     * by a larger value are removed: under MaxSum the larger value
+     * gives a better solution wherever the smaller one fits
+     * Removals are recorded in the trail like the search ones
+     * It stops with the budget too
+     * @return false if the problem has no solution
+     * or the budget ran out during a propagation
+     */
+    private boolean preprocess() {
+        long deadline = System.nanoTime() + opts.preTime * 1000000L;
+        if (graph == null) {
+            graph = new ConstraintGraph(vars, constraints, constraints_t);
+        }
+        sacRemoved = 0;
+        nsRemoved = 0;
+        spaceBefore = space();
+        if (!arcConsistency()) {
+            return false;
+        }
+        // singleton arc consistency, until nothing changes
+        boolean changed = true;
+        while (changed && System.nanoTime() < deadline && !budget.expired()) {
+            changed = false;
+            for (Variable v : vars) {
+                Domain d = v.getDomain();
+                int x = d.getMin();
+                while (x != Integer.MAX_VALUE && System.nanoTime() < deadline
+                        && !budget.expired()) {
+                    trail.mark();
+                    trail.assign(v, x);
+                    boolean consistent = arcConsistency();
+                    trail.undo();
+                    if (!consistent && !budget.isStopped()) {
+                        trail.remove(v, x);
+                        sacRemoved++;
+                        changed = true;
+                        if (d.empty() || !arcConsistency()) {
+                            return false;
+                        }
+                    }
+                    x = d.next(x);
+                }
+            }
+        }
+        // neighborhood substitutability
+        if (heuristic instanceof MaxSum && objectiveFunction instanceof MaxSum) {
+            for (Variable v : vars) {
+                if (System.nanoTime() >= deadline || budget.expired()) {
+                    break;
+                }
+                BinaryConstraint[] arcs = graph.arcsFrom(v.getIndex());
+                Domain d = v.getDomain();
+                int x = d.getMin();
+                while (x != d.getMax()) {
+                    int following = d.next(x);
+                    for (int y = d.getMax(); y > x; y = d.prev(y)) {
+                        if (substitutable(arcs, x, y)) {
+                            trail.remove(v, x);
+                            nsRemoved++;
+                            break;
+                        }
+                    }
+                    x = following;
+                }
+            }
+            if (nsRemoved > 0 && !arcConsistency()) {
+                return false;
+            }
+        }
+        spaceAfter = space();
+        return true;
+    }
+
+    /*
+     * @return true if every value supporting x in the arcs
+     * leaving a variable also supports y
+     */
+    private static boolean substitutable(BinaryConstraint[] arcs, int x, int y) {
+        for (BinaryConstraint c : arcs) {
+            Domain d = c.getB().getDomain();
+            for (int z = d.getMin(); z != Integer.MAX_VALUE; z = d.next(z)) {
+                if (c.satisfied(x, z) && !c.satisfied(y, z)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * @return log10 of the number of complete assignments
+     */
+    private double space() {
+        double s = 0;
+        for (Variable v : vars) {
+            s += Math.log10(Math.max(v.getDomain().size(), 1));
+        }
+        return s;
+    }
+
+    /*
+     * @return values removed by the last preprocessing:
+     * by singleton arc consistency and by substitutability
+     */
+    public int getSacRemoved() {
+        return sacRemoved;
+    }
+
+    public int getNsRemoved() {
+        return nsRemoved;
+    }
+
+    /*
+     * @return log10 of the size of the search space (the product of
+     * the domain sizes) before and after the last preprocessing
+     */
+    public double getSpaceBefore() {
+        return spaceBefore;
+    }
+
+    public double getSpaceAfter() {
+        return spaceAfter;
+    }
+
+    public boolean hasPreprocessing() {
+        return opts.preTime > 0;
+    }
+
+    /*
+     * Solve this instance again from scratch without preprocessing,
+     * to count the search nodes that -pre saved on it
+     * @return the nodes visited
+     */
+    int solveWithoutPre() {
+        long preTime = opts.preTime;
+        opts.preTime = 0;
+        try {
+            reset();
+            solve();
+        } finally {
+            opts.preTime = preTime;
+        }
+        return visitedNodes;
+    }
+
+    public boolean hasLns() {
+        return opts.lns != null;
+    }
+
+    /*
+     * @return the last LNS, null if the last search wasn't one
+     */
+    public LargeNeighbourhoodSearch getLns() {
+        return lns;
+    }
+
+    /*
+     * @return the induced width of the elimination order
+     * if the last search was bucket elimination, -1 otherwise
+     */
+    public int getElimWidth() {
+        return elim == null ? -1 : elim.getWidth();
+    }
+
+    /*
+     * @return the message cells of the last bucket elimination,
+     * 0 if the last search wasn't one (cells aren't nodes)
+     */
+    public long getElimCells() {
+        return elim == null ? 0 : elim.getCells();
+    }
+
+    /*
+     * Count the propagation timed by e, that ended at level lev
+     */
+    private void fixpoint(FixpointEvent e, int lev, boolean consistent) {
+        if (ac3 != null) {
+            revisions += ac3.getRevisions();
+            checks += ac3.getChecks();
+            pruned += ac3.getPruned();
+            ac3.clearCounts();
+        }
+        stats.fixpoint(revisions, checks, pruned, !consistent);
+        e.end();
+        if (e.shouldCommit()) {
+            e.depth = lev;
+            e.revisions = revisions;
+            e.pruned = pruned;
+            e.wipeout = !consistent;
+            e.commit();
+        }
+        revisions = 0;
+        checks = 0;
+        pruned = 0;
+    }
+
+    /*
+     * Cost based filtering, for a MaxSum heuristic:
+     * a value x of an unassigned variable v is removed if
+     * x plus the maxima of the other domains can't beat the bound
+     * Removals are propagated again until nothing changes
+     * @return false if the node can't lead to a better solution
+     */
+    private boolean filterCosts(int lev) {
+        if (!(heuristic instanceof MaxSum)) {
+            return true;
+        }
+        List<Variable> changed = new ArrayList<Variable>();
+        while (true) {
+            int bound = getBound();
+            if (bound == Integer.MIN_VALUE) {
+                return true; // no solution to beat yet
+            }
+            long sum = incHeuristic.value(); // sum of the maxima
+            if (sum <= bound) {
+                return false;
+            }
+            // since sum > bound no maximum is removed: sum stays the same
+            changed.clear();
+            for (int i = lev + 1; i < order.length; i++) {
+                Variable v = order[i];
+                Domain d = v.getDomain();
+                long threshold = bound - (sum - d.getMax());
+                int x = d.getMin();
+                if (x > threshold) {
+                    continue;
+                }
+                while (x <= threshold) {
+                    int following = d.next(x);
+                    trail.remove(v, x);
+                    x = following;
+                }
+                changed.add(v);
+            }
+            if (changed.isEmpty() || !doPropagation() || forwardChecking) {
+                return true; // forward checking only looks at the assigned variables
+            }
+            // removals may make other values lose their support
+            FixpointEvent e = null;
+            if (Stats.ENABLED) {
+                e = new FixpointEvent();
+                e.begin();
+            }
+            boolean consistent = repropagate(changed);
+            if (Stats.ENABLED) {
+                fixpoint(e, lev, consistent);
+            }
+            if (!consistent) {
+                return false;
+            }
+        }
+    }
+
+    /*
+     * Propagate the removals from the domains of changed
+     * @return false if a domain has been wiped out
+     */
+    private boolean repropagate(List<Variable> changed) {
+        if (useAC3) {
+            for (Variable v : changed) {
+                ac3.enqueue(v);
+            }
+            if (!ac3.propagate()) {
+                if (ac3.getWipeout() >= 0) {
+                    graph.bump(ac3.getWipeout());
+                }
+                return false;
+            }
+        } else {
+            ac1();
+            if (wipeout >= 0) {
+                graph.bump(wipeout);
+                return false;
+            }
+            return !budget.isStopped();
+        }
+        return true;
+    }
+
+    /*
+     * Return true if the current solution is a valid one
+     */
+    public boolean validSol() {
+        int elem1, elem2;
+
+        // for each constraint, check if it is satisfied
+        for (int i = 0; i < constraints.size(); i++) {
+            BinaryConstraint bc = constraints.get(i);
+        	// variables are assumed to be assigned
+        	// getMax() will return the only element
+        	// in their domain
+            elem1 = bc.getA().getDomain().getMax();
+            elem2 = bc.getB().getDomain().getMax();
+            if (Stats.ENABLED) {
+                stats.check(1);
+            }
+            if (bc.satisfied(elem1, elem2) == false) {
+                graph.bump(i);
+                return false;
+            }
+        }
+     
+        return true;
+    }
+
+    /*
+     * Save the current solution as the best one
+     * if its value of still beats the bound
+     */
+    public void setSol(int of) {
+        List<Integer> sol = new ArrayList<Integer>();
+        for (Variable v : vars) {
+            sol.add(v.getDomain().getMax()); // in a solution, every domain is a singleton
+        }
+        offer(of, sol);
+    }
+
+    /*
+     * Install sol as the best solution if value beats the bound,
+     * counting the improvement: every search of this problem
+     * (bb, components, local search, bucket elimination) goes
+     * through here, from any thread
+     * @return true if sol has been installed
+     */
+    boolean offer(int value, List<Integer> sol) {
+        if (!incumbent.offer(value, sol)) {
+            return false;
+        }
+        if (Stats.ENABLED) {
+            stats.improvement();
+            IncumbentEvent e = new IncumbentEvent();
+            if (e.shouldCommit()) {
+                e.value = value;
+                e.nodes = visitedNodes;
+                e.commit();
+            }
+        }
+        return true;
+    }
+
+    public void printSol() {
+        List<Integer> sol = incumbent.getSol();
+        if (sol.isEmpty()) {
+            System.out.println("No solutions.");
+        }
+        else {
+            System.out.print("Solution: ");
+            for (int s : sol) {
+                System.out.print(s);
+                System.out.print(' ');
+            }
+            System.out.println();
+        }
+    }
+
+    public boolean hasSolution() {
+    	return !incumbent.getSol().isEmpty();
+    }
+
+    /*
+     * @return the values of the best solution found, empty if none
+     */
+    public List<Integer> getSolution() {
+        return incumbent.getSol();
+    }
+
+    /*
+     * @return the value of the best solution found
+     */
+    public int getSolutionValue() {
+        return incumbent.getBound();
+    }
+
+    /*
+     * @return true if the last search explored the whole space,
+     * so that its solution (or the lack of one) is optimal,
+     * false if it ran out of budget or was cancelled
+     */
+    public boolean isProven() {
+        return proven;
+    }
+
+    public boolean hasBudget() {
+        return budget.isLimited();
+    }
+
+    Budget getBudget() {
+        return budget;
+    }
+
+    /*
+     * Stop the search, from any thread: solve() returns
+     * with the best solution found so far
+     */
+    public void cancel() {
+        budget.cancel();
+    }
+
+    public void setProgressListener(ProgressListener l) {
+        listener = l;
+    }
+
+    public int getVisitedNodes() {
+    	return visitedNodes;
+    }
+
+    /*
+     * @return the counters of the last search,
+     * all zero unless Stats.ENABLED
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    public List<Variable> getVariables() {
+        return vars;
+    }
+
+    public List<BinaryConstraint> getConstraints() {
+        return constraints;
+    }
+
+    public Trail getTrail() {
+        return trail;
+    }
+
+    /*
+     * Forget the best solution and the statistics of the
+     * last search, so that the problem can be solved again
+     */
+    public void reset() {
+        incumbent = new Incumbent();
+        budget = budget.renew();
+        visitedNodes = 0;
+        stats = Stats.ENABLED ? new Stats(vars.size()) : Stats.NONE;
+        graph = null;
+        ac3 = null; // it polls the old budget
+        elim = null;
+    }
+
+    /*
+     * Tentatively assign val to v and propagate
+     * Domains are restored before returning
+     * @return false if propagation wipes out a domain
+     */
+    public boolean probe(Variable v, int val) {
+        if (graph == null) {
+            graph = new ConstraintGraph(vars, constraints, constraints_t);
+        }
+        trail.mark();
+        trail.assign(v, val);
+        boolean consistent = !doPropagation() || propagate(v, 0);
+        trail.undo();
+        return consistent;
+    }
+    
+    /*
+     * Search for the best solution, within the budget
+     * With more than one thread, the subtrees rooted
+     * above the split depth are explored in parallel
+     */
+    public void solve() {
+        incumbent.start(listener);
+        budget.start();
+        if (opts.portfolio > 1) {
+            solvePortfolio();
+        } else {
+            search();
+        }
+    }
+
+    /*
+     * Search with the settings of this problem
+     * Restarted searches run on one thread
+     */
+    private void search() {
+        if (!rootAC && opts.preTime == 0) {
+            explore();
+            return;
+        }
+        // the root removals are undone after the search
+        trail.mark();
+        boolean consistent = !rootAC || propagateRoot();
+        if (consistent && opts.preTime > 0) {
+            consistent = preprocess();
+            if (!consistent) {
+                // no solution left, unless the budget ran out
+                spaceAfter = budget.isStopped() ? space() : 0;
+            }
+        }
+        if (consistent) {
+            explore();
+        } else {
+            proven = !budget.isStopped(); // no solution
+        }
+        trail.undo();
+    }
+
+    private void explore() {
+        if (opts.elimCells > 0 && heuristic instanceof MaxSum && objectiveFunction instanceof MaxSum) {
+            // exact in time and space exponential in the induced width
+            BucketElimination be = BucketElimination.plan(vars, constraints, constraints_t, opts.elimCells);
+            if (be != null) {
+                elim = be;
+                proven = be.solve(this);
+                return;
+            }
+        }
+        if (opts.lsTime > 0 && objectiveFunction instanceof MaxSum) {
+            warmStart();
+        }
+        if (opts.lns != null && !vars.isEmpty()) {
+            lns = new LargeNeighbourhoodSearch(this, opts.lns, opts.lnsNodes, random.split());
+            proven = lns.run();
+            return;
+        }
+        if (decompose && heuristic instanceof MaxSum && objectiveFunction instanceof MaxSum) {
+            List<List<Variable>> parts = components();
+            if (parts.size() > 1) {
+                solveParts(parts);
+                proven = !budget.isStopped();
+                return;
+            }
+        }
+        if (opts.restarts != null) {
+            // the bound and the constraint weights are kept between runs
+            for (int run = 1; ; run++) {
+                cutoff = opts.restarts.equals("luby") ? opts.restartBase * luby(run)
+                        : (long) Math.min(opts.restartBase * Math.pow(1.5, run - 1), Long.MAX_VALUE);
+                runNodes = 0;
+                cut = false;
+                bb(0);
+                if (!cut || budget.isStopped()) {
+                    break;
+                }
+            }
+            cutoff = 0;
+        } else if (threads > 1 && !vars.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new BBTask(this, 0));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            bb(0);
+        }
+        proven = !budget.isStopped() && !cut;
+    }
+
+    /*
+     * Seed the incumbent by local search for opts.lsTime ms,
+     * an independent search for each thread
+     */
+    private void warmStart() {
+        final long deadline = System.nanoTime() + opts.lsTime * 1000000L;
+        if (threads <= 1) {
+            new LocalSearch(vars, constraints, constraints_t, random.split()).run(this, deadline);
+            return;
+        }
+        List<Callable<Void>> runs = new ArrayList<Callable<Void>>();
+        for (int k = 0; k < threads; k++) {
+            final LocalSearch ls = new LocalSearch(vars, constraints, constraints_t, random.split());
+            runs.add(new Callable<Void>() {
+                public Void call() {
+                    ls.run(Problem.this, deadline);
+                    return null;
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            pool.invokeAll(runs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Search for a solution by bb() within nodes nodes, for LNS
+     * @return true if the whole space has been searched
+     */
+    boolean cutSearch(long nodes) {
+        cutoff = nodes;
+        runNodes = 0;
+        cut = false;
+        bb(0);
+        cutoff = 0;
+        return !cut;
+    }
+
+    /*
+     * Assign the incumbent values to the variables not free,
+     * and look for a better solution within nodes nodes, for LNS
+     * @return true if the neighbourhood has been searched all
+     */
+    boolean relax(boolean[] free, long nodes) {
+        int n = vars.size();
+        List<Integer> sol = incumbent.getSol();
+        trail.mark();
+        for (int i = 0; i < n; i++) {
+            if (!free[i]) {
+                trail.assign(vars.get(i), sol.get(i));
+            }
+        }
+        boolean consistent = !doPropagation() || propagateRoot();
+        // the assigned variables first, bb() branches on the others
+        int f = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < n; i++) {
+                if (free[i] == (pass == 1)) {
+                    order[f] = vars.get(i);
+                    pos[i] = f++;
+                }
+            }
+        }
+        int fixed = 0;
+        for (boolean b : free) {
+            fixed += b ? 0 : 1;
+        }
+        cutoff = nodes;
+        runNodes = 0;
+        cut = false;
+        if (consistent) {
+            bb(fixed);
+        }
+        cutoff = 0;
+        trail.undo();
+        return !cut;
+    }
+
+    /*
+     * @return the i-th term (from 1) of the Luby sequence
+     * 1 1 2 1 1 2 4 1 1 2 1 1 2 4 8 ...
+     */
+    public static long luby(long i) {
+        while (true) {
+            int k = 64 - Long.numberOfLeadingZeros(i); // 2^(k-1) <= i < 2^k
+            if (i == (1L << k) - 1) {
+                return 1L << (k - 1);
+            }
+            i -= (1L << (k - 1)) - 1;
+        }
+    }
+
+    /*
+     * Run differently configured copies of this problem on their own
+     * threads, sharing the incumbent and the budget: members prune
+     * with each other's bound, and the first one to explore its whole
+     * space proves the incumbent optimal and stops the others
+     * Member 0 has the settings of this problem, the others take
+     * in turn the orderings and restart strategies below
+     */
+    private void solvePortfolio() {
+        final String[] orders = { "domwdeg", "domwdeg", "dom", "domdeg", "dom", "domdeg" };
+        final String[] strategies = { null, "luby", "geom", "geom", null, "luby" };
+        final List<Problem> members = new ArrayList<Problem>();
+        for (int k = 0; k < opts.portfolio; k++) {
+            Problem m = new Problem(this);
+            m.threads = 1;
+            m.rootAC = rootAC;
+            m.decompose = decompose;
+            m.opts = opts.copy();
+            if (k > 0) {
+                m.varOrder = VarOrder.byName(orders[(k - 1) % orders.length]);
+                m.opts.restarts = strategies[(k - 1) % strategies.length];
+            } else {
+                m.varOrder = VarOrder.byName(varOrder.name());
+            }
+            if (m.opts.restarts != null) {
+                m.varOrder.setRandom(random.split());
+            }
+            members.add(m);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(opts.portfolio);
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final Problem m : members) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        m.search();
+                        if (m.proven) {
+                            budget.cancel(); // the others can stop
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            budget.cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        proven = false;
+        for (Problem m : members) {
+            visitedNodes += m.visitedNodes;
+            proven |= m.proven;
+            if (m.lns != null) {
+                if (lns == null) {
+                    lns = new LargeNeighbourhoodSearch(this, opts.lns, opts.lnsNodes, null);
+                }
+                lns.merge(m.lns);
+            }
+        }
+    }
+
+    /*
+     * @return the variables of each connected component
+     * of the constraint graph, in order of index
+     */
+    public List<List<Variable>> components() {
+        int[] parent = new int[vars.size()]; // union-find forest
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (BinaryConstraint bc : constraints) {
+            parent[root(parent, bc.getA().getIndex())] = root(parent, bc.getB().getIndex());
+        }
+        Map<Integer, List<Variable>> parts = new LinkedHashMap<Integer, List<Variable>>();
+        for (Variable v : vars) {
+            int r = root(parent, v.getIndex());
+            List<Variable> part = parts.get(r);
+            if (part == null) {
+                part = new ArrayList<Variable>();
+                parts.put(r, part);
+            }
+            part.add(v);
+        }
+        return new ArrayList<List<Variable>>(parts.values());
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; // path halving
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /*
+     * Solve each component on its own, in parallel with more
+     * than one thread, and merge the solutions: MaxSum is
+     * additive, so the best solution is made of the best
+     * solutions of the components
+     */
+    private void solveParts(List<List<Variable>> parts) {
+        List<Problem> subs = new ArrayList<Problem>();
+        for (List<Variable> part : parts) {
+            subs.add(new Problem(this, part));
+        }
+        if (threads > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<BBTask> tasks = new ArrayList<BBTask>();
+                for (Problem sub : subs) {
+                    BBTask t = new BBTask(sub, 0);
+                    pool.execute(t);
+                    tasks.add(t);
+                }
+                for (BBTask t : tasks) {
+                    t.join();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (Problem sub : subs) {
+                sub.bb(0);
+                if (!sub.hasSolution()) {
+                    break; // then the whole problem has none
+                }
+            }
+        }
+        Integer[] sol = new Integer[vars.size()];
+        int value = 0;
+        for (Problem sub : subs) {
+            visitedNodes += sub.visitedNodes;
+        }
+        for (int k = 0; k < subs.size(); k++) {
+            Problem sub = subs.get(k);
+            if (!sub.hasSolution()) {
+                return;
+            }
+            List<Integer> s = sub.incumbent.getSol();
+            for (int j = 0; j < s.size(); j++) {
+                sol[parts.get(k).get(j).getIndex()] = s.get(j);
+            }
+            value += sub.getBound();
+        }
+        offer(value, Arrays.asList(sol));
+    }
+
+    /*
+     * Branch&Bound implementation
+     */
+    public void bb(int lev) {
+        if (graph == null) {
+            graph = new ConstraintGraph(vars, constraints, constraints_t);
+        }
+        // bring the variable to branch on at position lev
+        int next = varOrder.select(order, lev, pos, graph);
+        Variable cv = order[next];
+        order[next] = order[lev];
+        pos[order[next].getIndex()] = next;
+        order[lev] = cv;
+        pos[cv.getIndex()] = lev;
+
+        Domain dom = cv.getDomain(); // restored by undo() after each value
+        List<BBTask> forks = null; // subtrees left to other workers
+        if (lev + 1 < splitDepth && ForkJoinTask.inForkJoinPool()) {
+            forks = new ArrayList<BBTask>();
+        }
+
+        int val = dom.getMax();
+        while (val != Integer.MIN_VALUE) {
+            if (budget.exhausted()) {
+                break; // out of budget or cancelled
+            }
+            if (cutoff > 0 && (cut || runNodes++ >= cutoff)) {
+                cut = true; // restart
+                break;
+            }
+            trail.mark(); // new decision level
+            trail.assign(cv, val);
+            visitedNodes++; // node visited
+            if (Stats.ENABLED) {
+                stats.node(lev);
+            }
+            
+            boolean consistent = true;
+            if (doPropagation()) {
+                consistent = propagate(cv, lev);
+            }
+            if (consistent && costFiltering) {
+                consistent = filterCosts(lev);
+            }
+            // check if the propagation returned a failed CSP
+            if (consistent) {
+            	if ((lev + 1) < vars.size()) { // if it's not the last level
+            		int h = evalHeuristic(); // heuristic on actual configuration of domains
+            		if (h > getBound()) {
+            			if (forks != null) {
+            				// hand a copy of the current state to a task
+            				BBTask t = new BBTask(new Problem(this), lev + 1);
+            				t.fork();
+            				forks.add(t);
+            			} else {
+            				bb(lev + 1); // next level
+            			}
+            		}
+            	} else { // last level
+            		int of = evalObjectiveFunction();
+            		if (of > getBound()) {
+            			if (doPropagation() || validSol()) { // if propagation or, if not, if valid
+            				setSol(of); // save current solution as the max values in domains
+            			}
+            		}
+            	}
+            }
+
+            trail.undo(); // restore domains
+            val = dom.prev(val);
+        } // end while
+
+        if (forks != null) {
+            for (BBTask t : forks) {
+                t.join();
+                visitedNodes += t.getProblem().getVisitedNodes();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("Solution: " + incumbent.getSol().toString());
+        sb.append("#<Problem variables: ");
+        for (Variable v : vars) {
+            sb.append(v.toString());
+            sb.append(", ");
+        }
+        sb.append("\nconstraints: ");
+
+        for (BinaryConstraint bc : constraints) {
+            sb.append(bc.toString());
+            sb.append("\n");
+        }
+        sb.append(">");
+
+        return sb.toString();
+    }
+    
+    // output an equivalent minion file to w
+    public void toMinion(MinionWriter w) {
+    	// header
+    	w.println("MINION 3").println();
+    	w.println("**VARIABLES**").println();
+    	// variables
+    	for (Variable v : vars) {
+    		v.toMinion(w);
+    	}
+    	// variable to maximize
+    	objectiveFunction.toMinionVariable(w, vars);
+    	// search
+    	w.println("**SEARCH**").println();
+    	w.print("MAXIMISING ").println(objectiveFunction.minionName());
+    	// variables output order
+    	w.print("PRINT [").varList(vars).println("]");
+    	w.print("VARORDER ").varList(vars).println().println();
+    	// constraints
+    	w.println("**TUPLELIST**");
+    	for (BinaryConstraint c : constraints) {
+    		c.toMinion(w);
+    	}
+    	w.println("**CONSTRAINTS**");
+    	objectiveFunction.toMinion(w, vars);
+    	for (BinaryConstraint c : constraints) {
+    		c.toMinionTable(w);
+    	}
+    	// end
+    	w.print("**EOF**");
+    }
+}
+
+/*
+ * Bucket elimination for MaxSum problems of small induced width
+ * Variables are eliminated in min-fill order: eliminating v replaces
+ * the constraints and messages on v by a message on the neighbours
+ * of v, which gives for each of their assignments the best value of
+ * v plus the messages on v. Messages are kept, so that the values
+ * can be chosen back in reverse order. Message tables take as many
+ * cells as the assignments of their scope: plan() gives up when
+ * they would take more than the budget
+ */
+class BucketElimination {
+
+    private static final int NONE = Integer.MIN_VALUE; // no consistent assignment
+    static final long MAX_CELLS = Integer.MAX_VALUE - 8; // of a message array, the largest JVMs allocate
+
+    private List<Variable> vars;
+    private int[][] values; // current domain of each variable
+    private int[] order; // elimination order, of variable indices
+    private int[] rank; // position in order of each variable
+    private int[][] scopes; // of the message of order[k], increasing rank
+    private List<List<BinaryConstraint>> cons; // on v and later variables, as (v, u)
+    private int width; // induced width of the order
+    private long cells; // of all the messages
+
+    private BucketElimination(List<Variable> vars) {
+        this.vars = vars;
+        int n = vars.size();
+        values = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Domain d = vars.get(i).getDomain();
+            int[] vs = new int[d.size()];
+            int k = 0;
+            for (int x = d.getMin(); x != Integer.MAX_VALUE; x = d.next(x)) {
+                vs[k++] = x;
+            }
+            values[i] = vs;
+        }
+        order = new int[n];
+        rank = new int[n];
+        scopes = new int[n][];
+    }
+
+    /*
+     * Find a min-fill elimination order of the constraint graph
+     * @return null if the messages would take more than maxCells
+     */
+    public static BucketElimination plan(List<Variable> vars, List<BinaryConstraint> constraints,
+            List<BinaryConstraint> constraints_t, long maxCells) {
+        BucketElimination be = new BucketElimination(vars);
+        int n = vars.size();
+        BitSet[] adj = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            adj[i] = new BitSet(n);
+        }
+        for (BinaryConstraint bc : constraints) {
+            int a = bc.getA().getIndex();
+            int b = bc.getB().getIndex();
+            adj[a].set(b);
+            adj[b].set(a);
+        }
+        // whatever the order, the first message is over the neighbours
+        // of a variable: don't look for an order of dense graphs
+        long least = Long.MAX_VALUE;
+        for (int v = 0; v < n; v++) {
+            least = Math.min(least, be.space(adj[v]));
+        }
+        if (n > 0 && least > maxCells) {
+            return null;
+        }
+        int[] fill = new int[n];
+        for (int v = 0; v < n; v++) {
+            fill[v] = fill(adj, v);
+        }
+        boolean[] done = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            int best = -1;
+            for (int v = 0; v < n; v++) {
+                if (!done[v] && (best < 0 || fill[v] < fill[best]
+                        || fill[v] == fill[best] && adj[v].cardinality() < adj[best].cardinality())) {
+                    best = v;
+                }
+            }
+            BitSet nb = adj[best];
+            be.cells += be.space(nb);
+            if (be.cells > maxCells) {
+                return null;
+            }
+            be.width = Math.max(be.width, nb.cardinality());
+            be.order[k] = best;
+            be.rank[best] = k;
+            done[best] = true;
+            // connect the neighbours, whose fill changes with their neighbours'
+            BitSet touched = new BitSet(n);
+            for (int u = nb.nextSetBit(0); u >= 0; u = nb.nextSetBit(u + 1)) {
+                adj[u].or(nb);
+                adj[u].clear(u);
+                adj[u].clear(best);
+                touched.or(adj[u]);
+            }
+            touched.or(nb);
+            for (int u = touched.nextSetBit(0); u >= 0; u = touched.nextSetBit(u + 1)) {
+                fill[u] = fill(adj, u);
+            }
+            be.scopes[k] = nb.stream().toArray();
+        }
+        // scopes by rank, the bucket of a message is its first variable
+        for (int[] scope : be.scopes) {
+            Integer[] s = new Integer[scope.length];
+            for (int i = 0; i < s.length; i++) {
+                s[i] = scope[i];
+            }
+            final int[] r = be.rank;
+            Arrays.sort(s, new Comparator<Integer>() {
+                public int compare(Integer x, Integer y) {
+                    return Integer.compare(r[x], r[y]);
+                }
+            });
+            for (int i = 0; i < s.length; i++) {
+                scope[i] = s[i];
+            }
+        }
+        be.cons = new ArrayList<List<BinaryConstraint>>();
+        for (int v = 0; v < n; v++) {
+            be.cons.add(new ArrayList<BinaryConstraint>());
+        }
+        for (int i = 0; i < constraints.size(); i++) {
+            BinaryConstraint bc = constraints.get(i);
+            int a = bc.getA().getIndex();
+            int b = bc.getB().getIndex();
+            if (be.rank[a] < be.rank[b]) {
+                be.cons.get(a).add(bc);
+            } else {
+                be.cons.get(b).add(constraints_t.get(i));
+            }
+        }
+        return be;
+    }
+
+    /*
+     * @return pairs of neighbours of v that are not adjacent
+     */
+    private static int fill(BitSet[] adj, int v) {
+        int missing = 0;
+        BitSet nb = adj[v];
+        for (int u = nb.nextSetBit(0); u >= 0; u = nb.nextSetBit(u + 1)) {
+            BitSet other = (BitSet) nb.clone();
+            other.andNot(adj[u]);
+            other.clear(0, u + 1);
+            missing += other.cardinality();
+        }
+        return missing;
+    }
+
+    /*
+     * @return assignments of the variables of scope, at most Long.MAX_VALUE
+     */
+    private long space(BitSet scope) {
+        long s = 1;
+        for (int u = scope.nextSetBit(0); u >= 0; u = scope.nextSetBit(u + 1)) {
+            int d = values[u].length;
+            if (d != 0 && s > Long.MAX_VALUE / d) {
+                return Long.MAX_VALUE;
+            }
+            s *= d;
+        }
+        return s;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public long getCells() {
+        return cells;
+    }
+
+    /*
+     * Compute the messages and offer the best solution to p
+     * Each message cell spends a node of the budget of p
+     * @return false if the budget ran out
+     */
+    public boolean solve(Problem p) {
+        Budget budget = p.getBudget();
+        int n = vars.size();
+        int[][] msgs = new int[n][];
+        List<List<Integer>> bucket = new ArrayList<List<Integer>>(); // messages on v
+        for (int v = 0; v < n; v++) {
+            bucket.add(new ArrayList<Integer>());
+        }
+        for (int[] vs : values) {
+            if (vs.length == 0) {
+                return true; // no solution
+            }
+        }
+        int total = 0; // of the messages over no variable
+        int[] idx = new int[n]; // index of the value of each variable
+        for (int k = 0; k < n; k++) {
+            int v = order[k];
+            int[] scope = scopes[k];
+            int[] msg = new int[(int) size(scope)];
+            for (int c = 0; c < msg.length; c++) {
+                if (budget.exhausted()) {
+                    return false;
+                }
+                // decode c into the values of the scope, last one fastest
+                int rest = c;
+                for (int i = scope.length - 1; i >= 0; i--) {
+                    idx[scope[i]] = rest % values[scope[i]].length;
+                    rest /= values[scope[i]].length;
+                }
+                msg[c] = best(v, bucket.get(v), msgs, idx, null);
+            }
+            msgs[k] = msg;
+            if (scope.length == 0) {
+                if (msg[0] == NONE || total == NONE) {
+                    total = NONE;
+                } else {
+                    total += msg[0];
+                }
+            } else {
+                bucket.get(scope[0]).add(k);
+            }
+        }
+        if (total == NONE) {
+            return true; // no solution
+        }
+        // choose the values back, each knowing those of its scope
+        Integer[] sol = new Integer[n];
+        int[] arg = new int[1];
+        for (int k = n - 1; k >= 0; k--) {
+            int v = order[k];
+            best(v, bucket.get(v), msgs, idx, arg);
+            idx[v] = arg[0];
+            sol[v] = values[v][arg[0]];
+        }
+        p.offer(total, Arrays.asList(sol));
+        return true;
+    }
+
+    /*
+     * @return the best value of v plus its messages, given the
+     * values idx of the later variables, NONE if no value of v
+     * is consistent with them; the index of the value is put
+     * in arg[0] unless arg is null
+     */
+    private int best(int v, List<Integer> bucket, int[][] msgs, int[] idx, int[] arg) {
+        int best = NONE;
+        int[] vs = values[v];
+        for (int i = vs.length - 1; i >= 0; i--) {
+            idx[v] = i;
+            if (!consistent(v, idx)) {
+                continue;
+            }
+            int m = messages(bucket, msgs, idx);
+            if (m != NONE && (best == NONE || vs[i] + m > best)) {
+                best = vs[i] + m;
+                if (arg != null) {
+                    arg[0] = i;
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+     * @return true if the value idx[v] of v satisfies its constraints
+     * with the values idx of the later variables
+     */
+    private boolean consistent(int v, int[] idx) {
+        int x = values[v][idx[v]];
+        for (BinaryConstraint bc : cons.get(v)) {
+            int u = bc.getB().getIndex();
+            if (!bc.satisfied(x, values[u][idx[u]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * @return the sum of the messages of bucket for the values idx,
+     * NONE if one of them is
+     */
+    private int messages(List<Integer> bucket, int[][] msgs, int[] idx) {
+        int sum = 0;
+        for (int j : bucket) {
+            int m = msgs[j][index(scopes[j], idx)];
+            if (m == NONE) {
+                return NONE;
+            }
+            sum += m;
+        }
+        return sum;
+    }
+
+    /*
+     * @return cell of a message over scope for the values idx
+     */
+    private int index(int[] scope, int[] idx) {
+        int c = 0;
+        for (int u : scope) {
+            c = c * values[u].length + idx[u];
+        }
+        return c;
+    }
+
+    private long size(int[] scope) {
+        long s = 1;
+        for (int u : scope) {
+            s *= values[u].length;
+        }
+        return s;
+    }
+}
+
+/*
+ * Local search for a good first incumbent (-ls)
+ * Min-conflicts with a tabu list repairs the assignment, then hill
+ * climbing raises values while no constraint breaks. From the best
+ * local optimum a few variables are pushed back to their largest value
+ * and the repair starts again, until the deadline. Solutions are offered
+ * to the incumbent, so that bb() prunes from its first node
+ */
+class LocalSearch {
+
+    private static final int TENURE = 10; // steps a value left stays tabu
+
+    private int n;
+    private int[][] values; // current domain of each variable
+    private BinaryConstraint[][] arcs; // arcs[v]: constraints (v, u)
+    private int[] a; // index of the value of each variable
+    private int[] conf; // broken constraints on each variable
+    private int broken; // broken constraints, counted from both ends
+    private long[][] tabu; // step until which a value is tabu
+    private long step;
+    private int[] best; // best local optimum, feasible
+    private int bestSum = Integer.MIN_VALUE;
+    private SplittableRandom random;
+
+    public LocalSearch(List<Variable> vars, List<BinaryConstraint> constraints,
+            List<BinaryConstraint> constraints_t, SplittableRandom random) {
+        this.random = random;
+        n = vars.size();
+        values = new int[n][];
+        tabu = new long[n][];
+        for (int v = 0; v < n; v++) {
+            Domain d = vars.get(v).getDomain();
+            int[] vs = new int[d.size()];
+            int k = 0;
+            for (int x = d.getMin(); x != Integer.MAX_VALUE; x = d.next(x)) {
+                vs[k++] = x;
+            }
+            values[v] = vs;
+            tabu[v] = new long[vs.length];
+        }
+        int[] deg = new int[n];
+        for (BinaryConstraint bc : constraints) {
+            deg[bc.getA().getIndex()]++;
+            deg[bc.getB().getIndex()]++;
+        }
+        arcs = new BinaryConstraint[n][];
+        for (int v = 0; v < n; v++) {
+            arcs[v] = new BinaryConstraint[deg[v]];
+            deg[v] = 0;
+        }
+        for (int i = 0; i < constraints.size(); i++) {
+            int x = constraints.get(i).getA().getIndex();
+            int y = constraints.get(i).getB().getIndex();
+            arcs[x][deg[x]++] = constraints.get(i);
+            arcs[y][deg[y]++] = constraints_t.get(i);
+        }
+        a = new int[n];
+        conf = new int[n];
+    }
+
+    /*
+     * Search until deadline (a System.nanoTime() value)
+     * or until the budget of p is stopped, offering solutions to p
+     */
+    public void run(Problem p, long deadline) {
+        Budget budget = p.getBudget();
+        for (int[] vs : values) {
+            if (vs.length == 0) {
+                return; // no solution
+            }
+        }
+        // start from the largest values
+        for (int v = 0; v < n; v++) {
+            a[v] = values[v].length - 1;
+        }
+        for (int v = 0; v < n; v++) {
+            for (BinaryConstraint bc : arcs[v]) {
+                if (!bc.satisfied(values[v][a[v]], value(bc.getB().getIndex()))) {
+                    conf[v]++;
+                    broken++;
+                }
+            }
+        }
+        while (System.nanoTime() - deadline < 0 && !budget.expired()) {
+            if (broken > 0) {
+                repair();
+                continue;
+            }
+            climb();
+            int sum = 0;
+            for (int v = 0; v < n; v++) {
+                sum += value(v);
+            }
+            if (sum >= bestSum) {
+                bestSum = sum;
+                best = a.clone();
+                if (sum > p.getSolutionValue()) {
+                    Integer[] sol = new Integer[n];
+                    for (int v = 0; v < n; v++) {
+                        sol[v] = value(v);
+                    }
+                    p.offer(sum, Arrays.asList(sol));
+                }
+            } else {
+                // perturb the best local optimum, not this one
+                System.arraycopy(best, 0, a, 0, n);
+            }
+            perturb();
+        }
+    }
+
+    private int value(int v) {
+        return values[v][a[v]];
+    }
+
+    /*
+     * Move a random variable on a broken constraint to its value
+     * breaking fewest constraints that isn't tabu, unless it
+     * repairs everything; once in a while to a random value
+     */
+    private void repair() {
+        step++;
+        int v = -1;
+        int seen = 0;
+        for (int u = 0; u < n; u++) {
+            if (conf[u] > 0 && random.nextInt(++seen) == 0) {
+                v = u;
+            }
+        }
+        int best = -1;
+        int least = Integer.MAX_VALUE;
+        for (int i = values[v].length - 1; i >= 0; i--) {
+            if (i == a[v]) {
+                continue;
+            }
+            int c = conflicts(v, i);
+            if (tabu[v][i] > step && broken - 2 * (conf[v] - c) > 0) {
+                continue;
+            }
+            if (c < least) {
+                best = i;
+                least = c;
+            }
+        }
+        if (best < 0 || random.nextInt(10) == 0) {
+            best = random.nextInt(values[v].length);
+        }
+        tabu[v][a[v]] = step + TENURE;
+        move(v, best);
+    }
+
+    /*
+     * Raise values, the largest first, while no constraint breaks
+     */
+    private void climb() {
+        boolean raised = true;
+        while (raised) {
+            raised = false;
+            int start = random.nextInt(n);
+            for (int k = 0; k < n; k++) {
+                int v = (start + k) % n;
+                for (int i = values[v].length - 1; i > a[v]; i--) {
+                    if (conflicts(v, i) == 0) {
+                        move(v, i);
+                        raised = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Push some variables to their largest value
+     */
+    private void perturb() {
+        for (int k = Math.max(n / 20, 1); k > 0; k--) {
+            int v = random.nextInt(n);
+            move(v, values[v].length - 1);
+        }
+    }
+
+    /*
+     * @return constraints on v broken by its i-th value
+     */
+    private int conflicts(int v, int i) {
+        int c = 0;
+        for (BinaryConstraint bc : arcs[v]) {
+            if (!bc.satisfied(values[v][i], value(bc.getB().getIndex()))) {
+                c++;
+            }
+        }
+        return c;
+    }
+
+    private void move(int v, int i) {
+        int x = values[v][a[v]];
+        int y = values[v][i];
+        for (BinaryConstraint bc : arcs[v]) {
+            int u = bc.getB().getIndex();
+            int w = value(u);
+            int delta = (bc.satisfied(y, w) ? 0 : 1) - (bc.satisfied(x, w) ? 0 : 1);
+            conf[v] += delta;
+            conf[u] += delta;
+            broken += 2 * delta;
+        }
+        a[v] = i;
+    }
+}
+
+/*
+ * Large neighbourhood search (-lns): keep the incumbent values but
+ * for a neighbourhood of the variables, re-optimized by bb() of the
+ * problem within a number of nodes. The neighbourhood grows when
+ * bb() explores it all without improvement, and shrinks when bb()
+ * runs out of nodes without improvement. Runs until the budget is
+ * spent, with no budget until STALL neighbourhoods in a row don't
+ * improve; proves the incumbent optimal only by searching every
+ * variable
+ */
+class LargeNeighbourhoodSearch {
+
+    static final int STALL = 1000; // neighbourhoods without improvement ending an unbudgeted LNS
+
+    private Problem p;
+    private String kinds; // random, graph, low or mix
+    private long nodes; // of bb() in a neighbourhood
+    private SplittableRandom random;
+    private int runs; // neighbourhoods searched
+    private int improved; // neighbourhoods that improved the incumbent
+    private int size; // variables of the current neighbourhood
+    private int[][] adjacent; // neighbours of each variable, for graph neighbourhoods
+
+    public LargeNeighbourhoodSearch(Problem p, String kinds, long nodes, SplittableRandom random) {
+        this.p = p;
+        this.kinds = kinds;
+        this.nodes = nodes;
+        this.random = random;
+    }
+
+    /*
+     * Search until the budget of the problem is spent
+     * @return true if the incumbent is proven optimal
+     */
+    public boolean run() {
+        final String[] each = { "random", "graph", "low" };
+        Budget budget = p.getBudget();
+        int n = p.getVariables().size();
+        if (!p.hasSolution()) {
+            // a first solution, by bb() with a growing cutoff
+            for (long c = nodes; !p.hasSolution() && !budget.isStopped(); c *= 2) {
+                if (p.cutSearch(c)) {
+                    return !budget.isStopped(); // searched it all
+                }
+            }
+        }
+        size = Math.min(n, Math.max(2, n / 10));
+        int stall = 0;
+        for (int it = 0; !budget.isStopped() && (budget.isLimited() || stall < STALL); it++) {
+            boolean[] free = neighbourhood(kinds.equals("mix") ? each[it % each.length] : kinds, size);
+            int before = p.getSolutionValue();
+            boolean complete = p.relax(free, nodes);
+            runs++;
+            if (complete && size == n) {
+                return !budget.isStopped();
+            }
+            int step = Math.max(1, size / 10);
+            if (p.getSolutionValue() > before) {
+                improved++;
+                stall = 0;
+            } else if (complete) {
+                size = Math.min(n, size + step);
+                stall++;
+            } else {
+                size = Math.max(Math.min(n, 2), size - step);
+                stall++;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * @return k variables to free (kind is random, graph or low):
+     * random ones, connected ones from a random variable, or ones
+     * whose value is among the farthest from their largest
+     */
+    private boolean[] neighbourhood(String kind, int k) {
+        List<Variable> vars = p.getVariables();
+        int n = vars.size();
+        boolean[] free = new boolean[n];
+        if (kind.equals("graph")) {
+            if (adjacent == null) {
+                int[] deg = new int[n];
+                for (BinaryConstraint bc : p.getConstraints()) {
+                    deg[bc.getA().getIndex()]++;
+                    deg[bc.getB().getIndex()]++;
+                }
+                adjacent = new int[n][];
+                for (int i = 0; i < n; i++) {
+                    adjacent[i] = new int[deg[i]];
+                    deg[i] = 0;
+                }
+                for (BinaryConstraint bc : p.getConstraints()) {
+                    int a = bc.getA().getIndex();
+                    int b = bc.getB().getIndex();
+                    adjacent[a][deg[a]++] = b;
+                    adjacent[b][deg[b]++] = a;
+                }
+            }
+            // breadth first, from another variable when a component is done
+            int[] queue = new int[n];
+            int head = 0;
+            int tail = 0;
+            while (tail < k) {
+                if (head == tail) {
+                    int v = random.nextInt(n);
+                    while (free[v]) {
+                        v = (v + 1) % n;
+                    }
+                    free[v] = true;
+                    queue[tail++] = v;
+                }
+                int v = queue[head++];
+                for (int u : adjacent[v]) {
+                    if (tail < k && !free[u]) {
+                        free[u] = true;
+                        queue[tail++] = u;
+                    }
+                }
+            }
+            return free;
+        }
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i;
+        }
+        int m = n; // candidates idx[0..m-1]
+        if (kind.equals("low")) {
+            // the 2k variables losing most against their largest value
+            final List<Integer> sol = p.getSolution();
+            final long[] key = new long[n];
+            for (int i = 0; i < n; i++) {
+                long loss = vars.get(i).getDomain().getMax() - (long) sol.get(i);
+                key[i] = loss << 32 | random.nextInt() & 0xffffffffL;
+            }
+            Integer[] byLoss = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                byLoss[i] = i;
+            }
+            Arrays.sort(byLoss, new Comparator<Integer>() {
+                public int compare(Integer x, Integer y) {
+                    return Long.compare(key[y], key[x]);
+                }
+            });
+            for (int i = 0; i < n; i++) {
+                idx[i] = byLoss[i];
+            }
+            m = Math.min(n, 2 * k);
+        }
+        // k of the candidates at random
+        for (int j = 0; j < k; j++) {
+            int r = j + random.nextInt(m - j);
+            int x = idx[r];
+            idx[r] = idx[j];
+            idx[j] = x;
+            free[x] = true;
+        }
+        return free;
+    }
+
+
+    /*
+     * Count the neighbourhoods of another search of the same
+     * problem, a portfolio member
+     */
+    public void merge(LargeNeighbourhoodSearch other) {
+        runs += other.runs;
+        improved += other.improved;
+        size = Math.max(size, other.size);
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+
+    public int getImproved() {
+        return improved;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
+
+/*
+ * A subtree of the branch&bound search
+ * run by a worker of a ForkJoinPool
+ */
+class BBTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Problem p; // tasks are never serialized, Problem isn't Serializable
+    private int lev;
+
+    public BBTask(Problem p, int lev) {
+        this.p = p;
+        this.lev = lev;
+    }
+
+    public Problem getProblem() {
+        return p;
+    }
+
+    @Override
+    protected void compute() {
+        p.bb(lev);
+    }
+}
+
+/*
+ * A randomly generated problem
+ * Everything is drawn from seeds derived from one seed,
+ * so the same seed gives the same problem
+ */
+class RandomProblem extends Problem {
+
+    private long seed;
+
+    public RandomProblem(Options o, Evaluator h, Evaluator of) {
+        super(h, of, o);
+        seed = o.seeded ? o.seed : new SplittableRandom().nextLong();
+        final int nvars = o.n;
+        final int length = o.l;
+        float density = o.d;
+        final float strictness = o.s;
+        final boolean hashTables = o.hashTables;
+        // create base domain that will be copied
+        Domain dom;
+        if (o.listDomains) {
+            List<Integer> values = new ArrayList<Integer>();
+            for (int i = 0; i < length; ++i) {
+                values.add(i);
+            }
+            dom = new ListDomain(values);
+        } else {
+            dom = new BitDomain(0, length - 1);
+        }
+        final List<Variable> vars = new ArrayList<Variable>();
+        // create variables
+        for (int i = 0; i < nvars; ++i) {
+            vars.add(new Variable("V" + i, dom.copy()));
+        }
+        setVariables(vars);
+        // choose the constrained pairs, a stream for each variable
+        int m = 0;
+        int[] first = new int[16];
+        int[] second = new int[16];
+        for (int i = 0; i < vars.size(); ++i) {
+            SplittableRandom r = new SplittableRandom(deriveSeed(seed, i));
+            for (int j = i + 1; j < vars.size(); ++j) {
+            	// accept constraint with "density" probability
+                if (r.nextDouble() < density) {
+                    if (m == first.length) {
+                        first = Arrays.copyOf(first, 2 * m);
+                        second = Arrays.copyOf(second, 2 * m);
+                    }
+                    first[m] = i;
+                    second[m] = j;
+                    m++;
+                }
+            }
+        }
+        // fill the tables in parallel, each from the seed of its pair
+        final int[] fa = first;
+        final int[] fb = second;
+        final BinaryConstraint[] bcs = new BinaryConstraint[m];
+        final long tableSeed = deriveSeed(seed, -1);
+        // off heap, the tables are allocated in order before the fill
+        final Table[] arena = new Table[o.offHeap ? m : 0];
+        if (o.offHeap) {
+            TableArena ta = new TableArena();
+            for (int k = 0; k < m; k++) {
+                arena[k] = ta.allocate(0, length - 1, 0, length - 1);
+            }
+        }
+        IntStream.range(0, m).parallel().forEach(new IntConsumer() {
+            public void accept(int k) {
+                Table t;
+                if (arena.length > 0) {
+                    t = arena[k];
+                } else if (hashTables) {
+                    t = new PairTable();
+                } else {
+                    t = new BitTable(0, length - 1, 0, length - 1);
+                }
+                long pair = (long) fa[k] * nvars + fb[k];
+                fillTable(t, length, strictness,
+                        new SplittableRandom(deriveSeed(tableSeed, pair)));
+                bcs[k] = new BinaryConstraint(vars.get(fa[k]), vars.get(fb[k]), t);
+            }
+        });
+        for (BinaryConstraint bc : bcs) {
+            addConstraint(bc);
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /*
+     * @return a seed for the index-th stream drawn from seed
+     * (the SplitMix64 finalizer)
+     */
+    public static long deriveSeed(long seed, long index) {
+        long z = seed + (index + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+     * Accept each pair of {0..length-1}^2 with probability p
+     * Only the rarer outcome is drawn: the gap to the next one is
+     * geometric, so the cost grows with the number of pairs drawn
+     * rather than with length^2
+     */
+    private static void fillTable(Table t, int length, double p, SplittableRandom r) {
+        long cells = (long) length * length;
+        boolean sparse = p <= 0.5;
+        double q = sparse ? p : 1 - p; // probability of the drawn outcome
+        if (q <= 0) {
+            if (!sparse) {
+                addAll(t, length);
+            }
+            return;
+        }
+        double logq = Math.log1p(-q);
+        if (sparse) {
+            // draw the accepted pairs
+            for (long c = skip(-1, logq, r); c < cells; c = skip(c, logq, r)) {
+                t.add((int) (c / length), (int) (c % length));
+            }
+        } else if (t instanceof DenseTable) {
+            // accept all, then draw the rejected pairs
+            DenseTable bt = (DenseTable) t;
+            bt.fill();
+            for (long c = skip(-1, logq, r); c < cells; c = skip(c, logq, r)) {
+                bt.remove((int) (c / length), (int) (c % length));
+            }
+        } else {
+            long rejected = skip(-1, logq, r);
+            for (long c = 0; c < cells; c++) {
+                if (c == rejected) {
+                    rejected = skip(rejected, logq, r);
+                } else {
+                    t.add((int) (c / length), (int) (c % length));
+                }
+            }
+        }
+    }
+
+    private static void addAll(Table t, int length) {
+        for (int a = 0; a < length; ++a) {
+            for (int b = 0; b < length; ++b) {
+                t.add(a, b);
+            }
+        }
+    }
+
+    /*
+     * @return the next drawn cell after c, when each cell
+     * is drawn with probability q (logq = log(1 - q))
+     */
+    private static long skip(long c, double logq, SplittableRandom r) {
+        double gap = Math.floor(Math.log(1.0 - r.nextDouble()) / logq);
+        if (gap >= Long.MAX_VALUE / 2) {
+            return Long.MAX_VALUE;
+        }
+        return c + 1 + (long) gap;
+    }
+}
+
+/*
+ * Maximize sum of values of variables
+ * good for both heuristic & objective function
+ */
+class MaxSum implements Problem.IncrementalEvaluator {
+
+    // incremental state: running sum of the maxima of the domains
+    private int sum;
+    private int[] saved = new int[32]; // sums at each mark
+    private int levels;
+
+    @Override
+    public int eval(List<Variable> vars) {
+        int sum = 0;
+        for (Variable v : vars) {
+            sum += v.getDomain().getMax();
+        }
+
+        return sum;
+    }
+
+    @Override
+    public MaxSum copy() {
+        return new MaxSum();
+    }
+
+    @Override
+    public void init(List<Variable> vars) {
+        sum = eval(vars);
+        levels = 0;
+    }
+
+    @Override
+    public void maxRemoved(Variable v, int oldMax) {
+        Domain d = v.getDomain();
+        // a wiped out domain fails the node, its value doesn't matter
+        sum -= oldMax - (d.empty() ? 0 : d.getMax());
+    }
+
+    @Override
+    public void assigned(Variable v, int oldMax) {
+        sum -= oldMax - v.getDomain().getMax();
+    }
+
+    @Override
+    public void mark() {
+        if (levels == saved.length) {
+            saved = Arrays.copyOf(saved, 2 * levels);
+        }
+        saved[levels++] = sum;
+    }
+
+    @Override
+    public void undo() {
+        sum = saved[--levels];
+    }
+
+    @Override
+    public int value() {
+        return sum;
+    }
+
+	@Override
+	public String minionName() {
+		return "SUM";
+	}
+
+	@Override
+	public void toMinion(MinionWriter w, List<Variable> vars) {
+		// couldn't find a sumeq() function
+    	w.print("sumleq(").varList(vars).print(',').print(minionName()).println(")");
+    	w.print("sumgeq(").varList(vars).print(',').print(minionName()).println(")");
+	}
+	
+	/*
+	 * Output to sb the declaration of the variable that will be maximized
+	 */
+	@Override
+	public void toMinionVariable(MinionWriter w, List<Variable> vars) {
+		// use eval() for upper bound of variable domain
+		// can't use Integer.MAX_VALUE since it would make
+		// minion crash
+		w.print("DISCRETE SUM {0..").print(eval(vars)).println("}");
+	}
+}
+
+class Benchmark {
+	public interface SingleRun {
+	    public void setup();
+		public void run();
+		public Problem getProblem();
+	}
+	
+	private SingleRun toRun;
+	private int nrun;
+	
+	public Benchmark(SingleRun r, int nrun) {
+		toRun = r;
+		this.nrun = nrun;
+	}
+
+	/*
+	 * @return the p-th percentile (nearest rank) of sorted values
+	 */
+	public static long percentile(long[] sorted, double p) {
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	public static double mean(long[] values) {
+		double sum = 0;
+		for (long v : values) {
+			sum += v;
+		}
+		return sum / values.length;
+	}
+	
+	public void runAll() {
+		long max = Long.MIN_VALUE;
+		long min = Long.MAX_VALUE;
+		long total_time = 0;
+		int visitedNodes = 0;
+		int maxNodes = Integer.MIN_VALUE;
+		int minNodes = Integer.MAX_VALUE;
+		long[][] counts = new long[6][nrun]; // Stats of each run
+		int unproven = 0; // runs stopped by the budget
+		long[] preRemoved = new long[nrun]; // values removed by preprocessing
+		double spaceCut = 0; // orders of magnitude of search space removed
+		long[] preNodes = new long[nrun]; // nodes with preprocessing
+		long[] plainNodes = new long[nrun]; // nodes of the same instance without
+		
+		for (int i = 0; i < nrun; ++i) {
+		    toRun.setup();
+			long start = System.currentTimeMillis();
+			toRun.run();
+			long time = System.currentTimeMillis() - start;
+			max = Math.max(max, time);
+			min = Math.min(min, time);
+			total_time += time;
+			int nodes = toRun.getProblem().getVisitedNodes();
+			maxNodes = Math.max(maxNodes, nodes);
+			minNodes = Math.min(minNodes, nodes);
+			visitedNodes += nodes;
+			if (!toRun.getProblem().isProven()) {
+				unproven++;
+			}
+			Problem pb = toRun.getProblem();
+			preRemoved[i] = pb.getSacRemoved() + pb.getNsRemoved();
+			spaceCut += pb.getSpaceBefore() - pb.getSpaceAfter();
+			if (Stats.ENABLED) {
+				Stats s = toRun.getProblem().getStats();
+				counts[0][i] = s.getChecks();
+				counts[1][i] = s.getRevisions();
+				counts[2][i] = s.getPruned();
+				counts[3][i] = s.getFixpoints();
+				counts[4][i] = s.getWipeouts();
+				counts[5][i] = s.getImprovements();
+			}
+			if (pb.hasPreprocessing()) {
+				// untimed: the same instance again, without -pre
+				preNodes[i] = nodes;
+				plainNodes[i] = pb.solveWithoutPre();
+			}
+		}
+		
+		// remove max & min value from the averages
+		double avg = (total_time - (max + min)) / (nrun - 2.0);
+		float avgNodes = (visitedNodes - (maxNodes + minNodes)) / (nrun - 2.0f);
+
+		// output stats in CSV format
+        System.out.print(";\"Max visited\";" + maxNodes);
+        System.out.print(";\"Min visited\";" + minNodes);
+        System.out.print(";\"Avg visited\";" + String.format("%f", avgNodes));
+        System.out.print(";\"Max time\";" + max);
+        System.out.print(";\"Min time\";" + min);        
+        System.out.print(";\"Avg time\";" + String.format("%f", avg));
+        if (toRun.getProblem().hasBudget()) {
+        	System.out.print(";\"Unproven\";" + unproven);
+        }
+        if (toRun.getProblem().hasPreprocessing()) {
+        	System.out.print(";\"Avg pre removed\";" + String.format("%f", mean(preRemoved)));
+        	System.out.print(";\"Avg space cut (log10)\";" + String.format("%f", spaceCut / nrun));
+        	System.out.print(";\"Avg nodes without pre\";" + String.format("%f", mean(plainNodes)));
+        	System.out.print(";\"Avg nodes cut by pre\";"
+        			+ String.format("%f", mean(plainNodes) - mean(preNodes)));
+        }
+        if (Stats.ENABLED) {
+        	String[] names = { "Checks", "Revisions", "Pruned", "Fixpoints", "Wipeouts", "Improvements" };
+        	for (int k = 0; k < names.length; k++) {
+        		System.out.print(";\"Avg " + names[k] + "\";" + String.format("%f", mean(counts[k])));
+        	}
+        }
+        System.out.println();
+	}
+}
+
+class RandomProblemBenchmark implements Benchmark.SingleRun {	
+	private Options o;
+    private Problem p;
+    private int solutions;
+    private int runs;
+    
+	public RandomProblemBenchmark(Options o) {
+		this.o = o;
+		solutions = 0;
+	}
+	
+    public void setup() {
+    	Options run = o;
+    	if (o.seeded) {
+    		// a different, reproducible problem at each run
+    		run = o.copy();
+    		run.seed = RandomProblem.deriveSeed(o.seed, runs);
+    	}
+    	runs++;
+    	if (o.instance != null) {
+    		try {
+    			p = InstanceReader.load(o.instance, o);
+    		} catch (IOException e) {
+    			throw new RuntimeException(e);
+    		}
+    		return;
+    	}
+    	p = new RandomProblem(run, new MaxSum(), new MaxSum());
+    }
+
+	public void run() {
+		p.solve();
+		if (p.hasSolution()) {
+			solutions++;
+		}
+	}
+	
+	public Problem getProblem() {
+		return p;
+	}
+
+	/*
+	 * Print benchmark parameters (the random problems class)
+	 */
+	public void printParameters() {
+        System.out.print(";\"Num\";" + o.n);
+        System.out.print(";\"Len\";" + o.l);
+        System.out.print(";\"Den\";" + String.format("%f", o.d));
+        System.out.print(";\"Str\";" + String.format("%f", o.s));
+        System.out.print(";\"Prop\";" + !o.propLevel().equals("none"));
+        System.out.print(";\"AC\";" + (o.ac3 ? "ac2001" : "ac1"));
+        System.out.print(";\"Level\";" + o.propLevel());
+        if (o.preTime > 0) {
+            System.out.print(";\"Preprocessing\";" + o.preTime);
+        }
+        System.out.print(";\"Dom\";" + (o.listDomains ? "list" : "bit"));
+        System.out.print(";\"Table\";" + (o.hashTables ? "hash" : o.offHeap ? "offheap" : "bit"));
+        System.out.print(";\"CF\";" + o.costFiltering);
+        if (o.elimCells > 0) {
+            System.out.print(";\"Elim\";" + o.elimCells);
+        }
+        if (o.lsTime > 0) {
+            System.out.print(";\"Local search\";" + o.lsTime);
+        }
+        if (o.lns != null) {
+            System.out.print(";\"LNS\";" + o.lns + ";\"LNS nodes\";" + o.lnsNodes);
+        }
+        System.out.print(";\"Order\";" + o.varOrder);
+        System.out.print(";\"Threads\";" + o.threads);
+        System.out.print(";\"CC\";" + o.decompose);
+        if (o.restarts != null) {
+            System.out.print(";\"Restarts\";" + o.restarts + ";\"Restart base\";" + o.restartBase);
+        }
+        if (o.portfolio > 1) {
+            System.out.print(";\"Portfolio\";" + o.portfolio);
+        }
+        if (o.seeded) {
+            System.out.print(";\"Seed\";" + o.seed);
+        }
+        if (o.instance != null) {
+            System.out.print(";\"Instance\";" + o.instance);
+        }
+        if (o.nodeLimit > 0) {
+            System.out.print(";\"Node limit\";" + o.nodeLimit);
+        }
+        if (o.timeLimit > 0) {
+            System.out.print(";\"Time limit\";" + o.timeLimit);
+        }
+	}
+
+	// never used, print number of generated problem with a solution
+	public void printStats() {
+		System.out.println("Problems with solution: " + solutions);
+	}
+}
+
+/*
+ * Parameter sweep run in a single JVM
+ * Every line of the spec is a series of points, the cartesian
+ * product of its parameter values:
+ *
+ *   "Density (with AC)" n=5 l=5 d=0.05..1:0.05 s=0.5 ac=true runs=50
+ *
+ * Values are comma separated, a..b is an integer range and
+ * a..b:step a float range; ac is true, false or both,
+ * prop a propagation level (none, fc, rootac, mac)
+ * Lines starting with # are comments
+ * Options given on the command line apply to every point
+ */
+class Sweep {
+
+    /*
+     * A point of the sweep and the results of its runs
+     */
+    static class Point {
+        String series;
+        Options o;
+        long seed; // runs use seeds derived from it, if seeded
+        long[] times; // nanoseconds
+        long[] nodes;
+        long[] checks; // counted with -stats
+        AtomicInteger solved = new AtomicInteger();
+
+        Point(String series, Options o, int runs) {
+            this.series = series;
+            this.o = o;
+            times = new long[runs];
+            nodes = new long[runs];
+            checks = new long[runs];
+        }
+    }
+
+    private Options base;
+    private List<Point> points = new ArrayList<Point>();
+
+    public Sweep(Options base) {
+        this.base = base;
+    }
+
+    /*
+     * Read the points of the spec file
+     */
+    public void parse(String fileName) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String series = "line " + lineNo;
+                if (line.startsWith("\"")) {
+                    int end = line.indexOf('"', 1);
+                    series = line.substring(1, end);
+                    line = line.substring(end + 1).trim();
+                }
+                parseSeries(series, line);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void parseSeries(String series, String line) {
+        Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+        int runs = 10;
+        for (String token : line.split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("bad token " + token);
+            }
+            String key = token.substring(0, eq);
+            String val = token.substring(eq + 1);
+            if (key.equals("runs")) {
+                runs = Integer.parseInt(val);
+            } else {
+                values.put(key, expand(val));
+            }
+        }
+        // cartesian product, in the order keys are written
+        List<Options> product = new ArrayList<Options>();
+        product.add(base.copy());
+        for (Map.Entry<String, List<String>> e : values.entrySet()) {
+            List<Options> next = new ArrayList<Options>();
+            for (Options o : product) {
+                for (String v : e.getValue()) {
+                    Options c = o.copy();
+                    set(c, e.getKey(), v);
+                    next.add(c);
+                }
+            }
+            product = next;
+        }
+        for (Options o : product) {
+            o.threads = 1; // runs are spread over the threads instead
+            o.checkElim();
+            o.checkRestarts();
+            Point p = new Point(series, o, runs);
+            p.seed = instanceSeed(o);
+            points.add(p);
+        }
+    }
+
+    /*
+     * @return the seed of the instances of a point, derived from the
+     * generator parameters only: points that differ in the solver
+     * settings (ac, vo, ...) solve the same problems
+     */
+    private static long instanceSeed(Options o) {
+        long seed = RandomProblem.deriveSeed(o.seed, o.n);
+        seed = RandomProblem.deriveSeed(seed, o.l);
+        seed = RandomProblem.deriveSeed(seed, Float.floatToIntBits(o.d));
+        return RandomProblem.deriveSeed(seed, Float.floatToIntBits(o.s));
+    }
+
+    private static List<String> expand(String val) {
+        List<String> l = new ArrayList<String>();
+        for (String item : val.split(",")) {
+            int dots = item.indexOf("..");
+            if (item.equals("both")) {
+                l.add("false");
+                l.add("true");
+            } else if (dots < 0) {
+                l.add(item);
+            } else if (item.indexOf(':') < 0) {
+                int a = Integer.parseInt(item.substring(0, dots));
+                int b = Integer.parseInt(item.substring(dots + 2));
+                for (int i = a; i <= b; i++) {
+                    l.add(Integer.toString(i));
+                }
+            } else {
+                int colon = item.indexOf(':');
+                double a = Double.parseDouble(item.substring(0, dots));
+                double b = Double.parseDouble(item.substring(dots + 2, colon));
+                double step = Double.parseDouble(item.substring(colon + 1));
+                long count = Math.round((b - a) / step);
+                for (long i = 0; i <= count; i++) {
+                    l.add(Double.toString(Math.round((a + i * step) * 1e6) / 1e6));
+                }
+            }
+        }
+        return l;
+    }
+
+    static void set(Options o, String key, String v) {
+        if (key.equals("n")) {
+            o.n = Integer.parseInt(v);
+        } else if (key.equals("l")) {
+            o.l = Integer.parseInt(v);
+        } else if (key.equals("d")) {
+            o.d = Float.parseFloat(v);
+        } else if (key.equals("s")) {
+            o.s = Float.parseFloat(v);
+        } else if (key.equals("ac")) {
+            o.ac = Boolean.parseBoolean(v);
+            if (!o.ac) {
+                o.ac3 = false; // no propagation at all
+                o.prop = null;
+            }
+        } else if (key.equals("prop")) {
+            o.prop = v;
+        } else {
+            throw new IllegalArgumentException("unknown parameter " + key);
+        }
+    }
+
+    /*
+     * Solve a new random problem of point p
+     * @return true if it has a solution
+     */
+    private static boolean runOnce(Point p, int run) {
+        Options o = p.o;
+        if (o.seeded) {
+            o = o.copy();
+            o.seed = RandomProblem.deriveSeed(p.seed, run);
+        }
+        Problem pb = new RandomProblem(o, new MaxSum(), new MaxSum());
+        long start = System.nanoTime();
+        pb.solve();
+        long time = System.nanoTime() - start;
+        if (run >= 0) {
+            p.times[run] = time;
+            p.nodes[run] = pb.getVisitedNodes();
+            p.checks[run] = pb.getStats().getChecks();
+        }
+        return pb.hasSolution();
+    }
+
+    /*
+     * Warm the JVM up with one run of every point,
+     * then run all the points on the given number of threads
+     */
+    public void runAll(int threads) throws InterruptedException {
+        for (Point p : points) {
+            runOnce(p, -1);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final Point p : points) {
+                for (int i = 0; i < p.times.length; i++) {
+                    final int run = i;
+                    tasks.add(Executors.callable(new Runnable() {
+                        public void run() {
+                            if (runOnce(p, run)) {
+                                p.solved.incrementAndGet();
+                            }
+                        }
+                    }));
+                }
+            }
+            for (Future<Object> f : pool.invokeAll(tasks)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Write one CSV row per point, times in milliseconds
+     */
+    public void write(String fileName) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        try {
+            out.println("series,n,l,d,s,prop,level,runs,solved,"
+                    + "time_min,time_p50,time_p90,time_p99,time_max,time_avg,"
+                    + "nodes_min,nodes_p50,nodes_p90,nodes_p99,nodes_max,nodes_avg"
+                    + (Stats.ENABLED ? ",checks_avg" : ""));
+            for (Point p : points) {
+                Options o = p.o;
+                long[] t = p.times.clone();
+                long[] nd = p.nodes.clone();
+                Arrays.sort(t);
+                Arrays.sort(nd);
+                out.print("\"" + p.series + "\"," + o.n + "," + o.l + ","
+                        + o.d + "," + o.s + "," + !o.propLevel().equals("none") + ","
+                        + o.propLevel() + "," + t.length + "," + p.solved.get());
+                out.print("," + ms(t[0]) + "," + ms(Benchmark.percentile(t, 50))
+                        + "," + ms(Benchmark.percentile(t, 90)) + ","
+                        + ms(Benchmark.percentile(t, 99)) + "," + ms(t[t.length - 1])
+                        + "," + ms(Benchmark.mean(t)));
+                out.print("," + nd[0] + "," + Benchmark.percentile(nd, 50)
+                        + "," + Benchmark.percentile(nd, 90) + ","
+                        + Benchmark.percentile(nd, 99) + "," + nd[nd.length - 1]
+                        + "," + String.format(Locale.ROOT, "%.3f", Benchmark.mean(nd)));
+                if (Stats.ENABLED) {
+                    out.print("," + String.format(Locale.ROOT, "%.3f", Benchmark.mean(p.checks)));
+                }
+                out.println();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String ms(double nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
+
+/*
+ * Batch mode: solves a stream of problems in one JVM
+ * Every line of the input is a problem, either an instance file
+ * or the parameters of a random problem, as in a sweep spec:
+ *
+ *   n=20 l=8 d=0.3 s=0.5 seed=7 time=500
+ *   file=problems/a.minion nodes=100000
+ *   problems/b.xml
+ *
+ * besides the sweep parameters, seed, time and nodes (budgets)
+ * and file are accepted. Lines are read as they come and every
+ * problem is solved on its own thread (a virtual thread on JVMs
+ * that have them), at most `threads` at a time; a JSON record is
+ * written for each problem as soon as its solve ends
+ */
+class Batch {
+
+    private Options base;
+    private int threads;
+    private PrintWriter out;
+    private Semaphore running; // solves started and not ended
+
+    public Batch(Options base, int threads, PrintWriter out) {
+        this.base = base;
+        this.threads = threads;
+        this.out = out;
+        running = new Semaphore(threads);
+    }
+
+    /*
+     * @return an executor starting a virtual thread per task on
+     * JVMs that have them (Java 21), a pool of threads otherwise
+     * Virtual threads run on at most `threads` carriers
+     */
+    private ExecutorService executor() {
+        if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", Integer.toString(threads));
+        }
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /*
+     * Solve every problem of fileName (- for the standard input)
+     */
+    public void run(String fileName) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(fileName.equals("-")
+                ? new InputStreamReader(System.in) : new FileReader(fileName));
+        ExecutorService pool = executor();
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                final String spec = line.trim();
+                if (spec.isEmpty() || spec.startsWith("#")) {
+                    continue;
+                }
+                final int id = lineNo;
+                running.acquire(); // don't read ahead of the solvers
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            solve(id, spec);
+                        } finally {
+                            running.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            in.close();
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            out.flush();
+        }
+    }
+
+    /*
+     * @return the options of the problem of a spec line
+     */
+    private Options parse(int id, String spec) throws IOException {
+        Options o = base.copy();
+        o.threads = 1;
+        o.portfolio = 1;
+        if (o.seeded) {
+            o.seed = RandomProblem.deriveSeed(base.seed, id);
+        }
+        for (String token : spec.split("\\s+")) {
+            int eq = token.indexOf('=');
+            String key = eq < 0 ? "file" : token.substring(0, eq);
+            String v = token.substring(eq + 1);
+            if (key.equals("file")) {
+                o.instance = v;
+            } else if (key.equals("seed")) {
+                o.seeded = true;
+                o.seed = Long.parseLong(v);
+            } else if (key.equals("time")) {
+                o.timeLimit = Long.parseLong(v);
+            } else if (key.equals("nodes")) {
+                o.nodeLimit = Long.parseLong(v);
+            } else {
+                Sweep.set(o, key, v);
+            }
+        }
+        o.checkElim();
+        o.checkRestarts();
+        return o;
+    }
+
+    private void solve(int id, String spec) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"id\":").append(id).append(",\"spec\":").append(quote(spec));
+        try {
+            Options o = parse(id, spec);
+            long start = System.nanoTime();
+            Problem p = o.instance != null ? InstanceReader.load(o.instance, o)
+                    : new RandomProblem(o, new MaxSum(), new MaxSum());
+            p.solve();
+            long time = System.nanoTime() - start;
+            String status;
+            if (p.hasSolution()) {
+                status = p.isProven() ? "optimal" : "feasible";
+            } else {
+                status = p.isProven() ? "infeasible" : "unknown";
+            }
+            sb.append(",\"status\":\"").append(status).append('"');
+            if (p.hasSolution()) {
+                sb.append(",\"value\":").append(p.getSolutionValue());
+                sb.append(",\"solution\":").append(p.getSolution().toString().replace(" ", ""));
+            }
+            sb.append(",\"nodes\":").append(p.getVisitedNodes());
+            if (p.getElimWidth() >= 0) {
+                sb.append(",\"width\":").append(p.getElimWidth());
+                sb.append(",\"cells\":").append(p.getElimCells());
+            }
+            sb.append(",\"ms\":").append(String.format(Locale.ROOT, "%.3f", time / 1e6));
+        } catch (Exception e) {
+            // a bad line or file doesn't stop the batch
+            sb.append(",\"status\":\"error\",\"error\":").append(quote(e.toString()));
+        }
+        sb.append('}');
+        synchronized (out) {
+            out.println(sb);
+            out.flush();
         }
-        sb.append(">");
-
-        return sb.toString();
     }
-    
-    // output an equivalent minion file to sb
-    public void toMinion(StringBuffer sb) {
-    	// header
-    	sb.append("MINION 3\n\n");
-    	sb.append("**VARIABLES**\n\n");
-    	// variables
-    	for (Variable v : vars) {
-    		v.toMinion(sb);
-    	}
-    	// variable to maximize
-    	objectiveFunction.toMinionVariable(sb, vars);
-    	// search
-    	sb.append("**SEARCH**\n\n");
-    	sb.append("MAXIMISING " + objectiveFunction.minionName() + "\n");
-    	sb.append("PRINT [");
 
-    	// variables output order
-    	String varList = Variable.minionVarList(vars);
-    	sb.append(varList);
-    	sb.append("]\n");
-    	sb.append("VARORDER ");
-    	sb.append(varList);
-    	sb.append("\n\n");
-    	// constraints
-    	sb.append("**TUPLELIST**\n");
-    	for (BinaryConstraint c : constraints) {
-    		c.toMinion(sb);
-    	}
-    	sb.append("**CONSTRAINTS**\n");
-    	objectiveFunction.toMinion(sb, vars);
-    	for (BinaryConstraint c : constraints) {
-    		c.toMinionTable(sb);
-    	}
-    	// end
-    	sb.append("**EOF**");
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
     }
 }
 
 /*
- * A randomly generated problem
+ * Microbenchmarks of the solver hot paths
+ * Every case runs on fixed-seed RandomProblem instances: it is
+ * warmed up, then timed over several iterations, reporting the
+ * throughput and the bytes allocated by the measuring thread
  */
-class RandomProblem extends Problem {
+class Microbenchmark {
 
-    private Random r = new Random();
+    /*
+     * A measured operation
+     */
+    static abstract class Op {
+        /*
+         * Untimed, called before every iteration
+         */
+        public void prepare() {
+        }
 
-    public RandomProblem(int nvars, int length, float density,
-            float strictness, Evaluator h, Evaluator of, boolean prop) {
-        super(h, of, prop);
-        // create base domain that will be copied
-        List<Integer> values = new ArrayList<Integer>();
-        for (int i = 0; i < length; ++i) {
-            values.add(i);
+        /*
+         * @return a value depending on the work done,
+         * consumed so that the JIT can't drop it
+         */
+        public abstract long run();
+    }
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 200000000L;
+    private static final long SEED = 42;
+
+    private Options o;
+    private com.sun.management.ThreadMXBean threads;
+    private volatile long sink; // every result is stored here, so no run is dead code
+
+    public Microbenchmark(Options o) {
+        this.o = o;
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    private long allocated() {
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return 0;
         }
-        ListDomain dom = new ListDomain(values);
-        List<Variable> vars = new ArrayList<Variable>();
-        // create variables
-        for (int i = 0; i < nvars; ++i) {
-            vars.add(new Variable("V" + i, dom.copy()));
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private Problem instance(Options base, int n, int l, float d, float s, boolean ac, boolean ac3) {
+        Options io = base.copy();
+        io.n = n;
+        io.l = l;
+        io.d = d;
+        io.s = s;
+        io.ac = ac;
+        io.ac3 = ac3;
+        io.prop = null;
+        io.threads = 1;
+        io.seed = SEED;
+        io.seeded = true;
+        return new RandomProblem(io, new MaxSum(), new MaxSum());
+    }
+
+    /*
+     * Time op and print a result line
+     */
+    private void measure(String name, Problem p, Op op) {
+        for (int i = 0; i < WARMUP; i++) {
+            op.prepare();
+            long start = System.nanoTime();
+            do {
+                sink = op.run();
+            } while (System.nanoTime() - start < ITERATION_NANOS);
         }
-        setVariables(vars);
-        for (int i = 0; i < vars.size(); ++i) {
-            for (int j = i + 1; j < vars.size(); ++j) {
-            	// accept constraint with "density" probability
-                if (r.nextFloat() <= density) {
-                    // create constraint between v1 and v2
-                    BinaryConstraint bc = new BinaryConstraint(vars.get(i), vars.get(j));
-                    for (int a : dom.getElems()) {
-                        for (int b : dom.getElems()) {
-                        	// accept pair with "strictness" probability
-                            if (r.nextFloat() <= strictness) {
-                                bc.add(new Pair(a, b));
-                            }
+        double[] rates = new double[ITERATIONS];
+        long ops = 0;
+        long bytes = 0;
+        long nanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.prepare();
+            long n = 0;
+            long mem = allocated();
+            long start = System.nanoTime();
+            long time;
+            do {
+                sink = op.run();
+                n++;
+                time = System.nanoTime() - start;
+            } while (time < ITERATION_NANOS);
+            bytes += allocated() - mem;
+            rates[i] = n * 1e9 / time;
+            ops += n;
+            nanos += time;
+        }
+        double mean = 0;
+        for (double r : rates) {
+            mean += r;
+        }
+        mean /= ITERATIONS;
+        double var = 0;
+        for (double r : rates) {
+            var += (r - mean) * (r - mean);
+        }
+        double err = Math.sqrt(var / (ITERATIONS - 1));
+
+        System.out.print(";\"Bench\";" + name);
+        System.out.print(";\"Num\";" + p.getVariables().size());
+        System.out.print(";\"Len\";" + p.getVariables().get(0).getDomain().size());
+        System.out.print(";\"Cons\";" + p.getConstraints().size());
+        System.out.print(";\"Ops/s\";" + String.format("%f", mean));
+        System.out.print(";\"Err\";" + String.format("%f", err));
+        System.out.print(";\"B/op\";" + String.format("%f", (double) bytes / ops));
+        System.out.print(";\"MB/s\";" + String.format("%f", bytes / (nanos / 1e9) / (1 << 20)));
+        System.out.println();
+    }
+
+    /*
+     * Run every case on every instance of the grid
+     * Domain and table representations come from the options,
+     * so do the search settings of the full solves
+     */
+    public void runAll() {
+        int[][] sizes = {{20, 16}, {60, 64}};
+        float[] densities = {0.3f, 0.9f};
+        float[] strictness = {0.3f, 0.7f};
+        for (int[] size : sizes) {
+            for (float d : densities) {
+                for (float s : strictness) {
+                    System.out.println("\"n=" + size[0] + " l=" + size[1]
+                            + " d=" + d + " s=" + s + "\"");
+                    primitives(size[0], size[1], d, s);
+                }
+            }
+        }
+        int[] solveSizes = {8, 12};
+        for (int n : solveSizes) {
+            for (float d : densities) {
+                for (float s : strictness) {
+                    System.out.println("\"n=" + n + " l=6 d=" + d + " s=" + s + "\"");
+                    final Problem p = instance(o, n, 6, d, s, o.ac, o.ac3);
+                    measure("bb", p, new Op() {
+                        public long run() {
+                            p.reset();
+                            p.solve();
+                            return p.getVisitedNodes();
                         }
-                    }
-                    addConstraint(bc);
+                    });
                 }
             }
         }
+        System.out.println("\"sink " + sink + "\"");
     }
-}
-
-/*
- * Maximize sum of values of variables
- * good for both heuristic & objective function
- */
-class MaxSum implements Problem.Evaluator {
 
-    @Override
-    public int eval(List<Variable> vars) {
-        int sum = 0;
-        for (Variable v : vars) {
-            ListDomain d = v.getDomain();
-            int max = Integer.MIN_VALUE;
-            for (int elem : d.getElems()) {
-                if (elem > max) {
-                    max = elem;
-                }
+    private void primitives(int n, int l, float d, float s) {
+        final Problem p = instance(o, n, l, d, s, true, false);
+        final List<BinaryConstraint> cs = p.getConstraints();
+        final List<Variable> vars = p.getVariables();
+        if (cs.isEmpty()) {
+            return;
+        }
+        // pairs to check, drawn once
+        final int[] xs = new int[1024];
+        final int[] ys = new int[1024];
+        Random r = new Random(SEED);
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = r.nextInt(l);
+            ys[i] = r.nextInt(l);
+        }
+        measure("satisfied", p, new Op() {
+            int c = 0;
+            int i = 0;
+            public long run() {
+                i = (i + 1) & 1023;
+                c = c + 1 == cs.size() ? 0 : c + 1;
+                return cs.get(c).satisfied(xs[i], ys[i]) ? 1 : 0;
             }
-            sum += max;
+        });
+        final Trail t = p.getTrail();
+        final List<BinaryConstraint> arcs = new ArrayList<BinaryConstraint>();
+        for (BinaryConstraint bc : cs) {
+            arcs.add(bc);
+            arcs.add(bc.transpose());
         }
-
-        return sum;
+        // revise once every arc of the root node
+        measure("revise", p, new Op() {
+            public long run() {
+                long changed = 0;
+                t.mark();
+                for (BinaryConstraint bc : arcs) {
+                    if (bc.revise(t)) {
+                        changed++;
+                    }
+                }
+                t.undo();
+                return changed;
+            }
+        });
+        final Variable v = vars.get(0);
+        final int val = v.getDomain().getMax();
+        measure("ac1", p, new Op() {
+            public long run() {
+                return p.probe(v, val) ? 1 : 0;
+            }
+        });
+        final Problem p3 = instance(o, n, l, d, s, false, true);
+        final Variable v3 = p3.getVariables().get(0);
+        measure("ac2001", p3, new Op() {
+            public long run() {
+                return p3.probe(v3, val) ? 1 : 0;
+            }
+        });
+        final MaxSum eval = new MaxSum();
+        measure("eval", p, new Op() {
+            public long run() {
+                return eval.eval(vars);
+            }
+        });
     }
-
-	@Override
-	public String minionName() {
-		return "SUM";
-	}
-
-	@Override
-	public void toMinion(StringBuffer sb, List<Variable> vars) {
-		String varList = Variable.minionVarList(vars);
-		// couldn't find a sumeq() function
-    	sb.append("sumleq(" + varList + "," + minionName() + ")\n");
-    	sb.append("sumgeq(" + varList + "," + minionName() + ")\n");
-	}
-	
-	/*
-	 * Output to sb the declaration of the variable that will be maximized
-	 */
-	@Override
-	public void toMinionVariable(StringBuffer sb, List<Variable> vars) {
-		// use eval() for upper bound of variable domain
-		// can't use Integer.MAX_VALUE since it would make
-		// minion crash
-		sb.append("DISCRETE SUM {0.." + eval(vars) + "}\n");		
-	}
 }
 
-class Benchmark {
-	public interface SingleRun {
-	    public void setup();
-		public void run();
-		public Problem getProblem();
-	}
-	
-	private SingleRun toRun;
-	private int nrun;
-	
-	public Benchmark(SingleRun r, int nrun) {
-		toRun = r;
-		this.nrun = nrun;
-	}
-	
-	public void runAll() {
-		long max = Long.MIN_VALUE;
-		long min = Long.MAX_VALUE;
-		long total_time = 0;
-		int visitedNodes = 0;
-		int maxNodes = Integer.MIN_VALUE;
-		int minNodes = Integer.MAX_VALUE;
-		
-		for (int i = 0; i < nrun; ++i) {
-		    toRun.setup();
-			long start = System.currentTimeMillis();
-			toRun.run();
-			long time = System.currentTimeMillis() - start;
-			max = Math.max(max, time);
-			min = Math.min(min, time);
-			total_time += time;
-			int nodes = toRun.getProblem().getVisitedNodes();
-			maxNodes = Math.max(maxNodes, nodes);
-			minNodes = Math.min(minNodes, nodes);
-			visitedNodes += nodes;
-		}
-		
-		// remove max & min value from the averages
-		double avg = (total_time - (max + min)) / (nrun - 2.0);
-		float avgNodes = (visitedNodes - (maxNodes + minNodes)) / (nrun - 2.0f);
-
-		// output stats in CSV format
-        System.out.print(";\"Max visited\";" + maxNodes);
-        System.out.print(";\"Min visited\";" + minNodes);
-        System.out.print(";\"Avg visited\";" + String.format("%f", avgNodes));
-        System.out.print(";\"Max time\";" + max);
-        System.out.print(";\"Min time\";" + min);        
-        System.out.print(";\"Avg time\";" + String.format("%f", avg));
-        System.out.println();
-	}
-}
+/*
+ * Settings shared by the problem generator,
+ * the solver and the benchmarks
+ */
+class Options {
+    public int n = 3; // number of variables
+    public int l = 3; // cardinality of domains
+    public float d = 0.5f; // density of constraints
+    public float s = 0.5f; // strictness of constraints
+    public boolean ac = false; // do propagation
+    public boolean ac3 = false; // propagate with AC-3/AC-2001
+    public String prop = null; // none, fc, rootac or mac; null: mac with -ac/-ac3
+    public long preTime = 0; // ms of preprocessing before the search, 0 for none
+    public boolean listDomains = false; // ListDomain instead of BitDomain
+    public boolean hashTables = false; // PairTable instead of BitTable
+    public boolean offHeap = false; // tables in a TableArena instead of BitTables
+    public int threads = 1; // workers of the branch&bound
+    public int splitDepth = 3; // levels split into parallel tasks
+    public String varOrder = "lex"; // variable ordering of branch&bound
+    public boolean costFiltering = false; // prune values against the bound
+    public boolean seeded = false; // generate problems from seed
+    public long seed = 0;
+    public String instance = null; // instance file to load instead of generating
+    public long nodeLimit = 0; // nodes a search may visit, 0 for no limit
+    public long timeLimit = 0; // ms a search may take, 0 for no limit
+    public boolean decompose = false; // solve connected components separately
+    public String restarts = null; // "luby" or "geom" node cutoffs, null for none
+    public long restartBase = 100; // nodes of the first restart run
+    public int portfolio = 1; // searches run side by side
+    public long elimCells = 0; // message cells of bucket elimination, 0 to always search
+    public long lsTime = 0; // ms of local search before the search, 0 for none
+    public String lns = null; // LNS neighbourhoods: random, graph, low or mix; null for none
+    public long lnsNodes = 1000; // nodes of bb() in an LNS neighbourhood
 
-class RandomProblemBenchmark implements Benchmark.SingleRun {	
-	private int n;
-	private int l;
-	private float d;
-	private float s;
-	private boolean ac;
-    private Problem p;
-    private int solutions;
-    
-	public RandomProblemBenchmark(int n, int l, float d, float s, boolean ac) {
-		this.n = n;
-		this.l = l;
-		this.d = d;
-		this.s = s;
-		this.ac = ac;
-		solutions = 0;
-	}
-	
-    public void setup() {
-    	p = new RandomProblem(n, l, d, s, new MaxSum(), new MaxSum(), ac);
+    /*
+     * @return the propagation level: none, fc (forward checking),
+     * rootac (arc consistency at the root, then forward checking)
+     * or mac (maintain arc consistency)
+     */
+    public String propLevel() {
+        if (prop != null) {
+            return prop;
+        }
+        return ac || ac3 ? "mac" : "none";
     }
 
-	public void run() {
-		p.bb(0);
-		if (p.hasSolution()) {
-			solutions++;
-		}
-	}
-	
-	public Problem getProblem() {
-		return p;
-	}
+    /*
+     * Bucket elimination replaces the search: refuse the options
+     * that only change the search, and budgets of cells larger
+     * than a message array can hold
+     * @throws IllegalArgumentException naming the first of them
+     */
+    public void checkElim() {
+        if (elimCells <= 0) {
+            return;
+        }
+        if (elimCells > BucketElimination.MAX_CELLS) {
+            // a message is an int[] of up to elimCells cells
+            throw new IllegalArgumentException("-elim can't exceed " + BucketElimination.MAX_CELLS + " cells");
+        }
+        String other = null;
+        if (propLevel().equals("mac") || propLevel().equals("fc")) {
+            other = "propagation during the search (-ac, -ac3, -prop " + propLevel() + ")";
+        } else if (threads > 1) {
+            other = "-t";
+        } else if (!varOrder.equals("lex")) {
+            other = "-vo";
+        } else if (costFiltering) {
+            other = "-cf";
+        } else if (restarts != null) {
+            other = "-restarts";
+        } else if (portfolio > 1) {
+            other = "-portfolio";
+        } else if (decompose) {
+            other = "-cc";
+        } else if (lsTime > 0) {
+            other = "-ls";
+        } else if (lns != null) {
+            other = "-lns";
+        }
+        if (other != null) {
+            throw new IllegalArgumentException("-elim replaces the search, it can't be used with " + other);
+        }
+    }
 
-	/*
-	 * Print benchmark parameters (the random problems class)
-	 */
-	public void printParameters() {
-        System.out.print(";\"Num\";" + n);
-        System.out.print(";\"Len\";" + l);
-        System.out.print(";\"Den\";" + String.format("%f", d));
-        System.out.print(";\"Str\";" + String.format("%f", s));
-        System.out.print(";\"Prop\";" + ac);
-	}
+    /*
+     * Restarts only differ through the random tie-breaks of the
+     * ordering, and lex has none: every run would repeat the first
+     * Components of -cc are searched once each, without restarts
+     * @throws IllegalArgumentException if -restarts is used with lex or -cc
+     */
+    public void checkRestarts() {
+        if (restarts != null && varOrder.equals("lex")) {
+            throw new IllegalArgumentException("-restarts needs a dynamic ordering (-vo dom, domdeg or domwdeg), lex would repeat the same search");
+        }
+        if (restarts != null && decompose) {
+            throw new IllegalArgumentException("-restarts can't be used with -cc, components are searched without restarts");
+        }
+    }
 
-	// never used, print number of generated problem with a solution
-	public void printStats() {
-		System.out.println("Problems with solution: " + solutions);
-	}
+    public Options copy() {
+        Options c = new Options();
+        c.n = n;
+        c.l = l;
+        c.d = d;
+        c.s = s;
+        c.ac = ac;
+        c.ac3 = ac3;
+        c.prop = prop;
+        c.preTime = preTime;
+        c.listDomains = listDomains;
+        c.hashTables = hashTables;
+        c.elimCells = elimCells;
+        c.lsTime = lsTime;
+        c.lns = lns;
+        c.lnsNodes = lnsNodes;
+        c.offHeap = offHeap;
+        c.threads = threads;
+        c.splitDepth = splitDepth;
+        c.varOrder = varOrder;
+        c.costFiltering = costFiltering;
+        c.seeded = seeded;
+        c.seed = seed;
+        c.instance = instance;
+        c.nodeLimit = nodeLimit;
+        c.timeLimit = timeLimit;
+        c.decompose = decompose;
+        c.restarts = restarts;
+        c.restartBase = restartBase;
+        c.portfolio = portfolio;
+        return c;
+    }
 }
 
 /*
@@ -759,13 +6406,18 @@ class RandomProblemBenchmark implements Benchmark.SingleRun {
 public class Solver {
 
     public static void main(String args[]) {
-        int n = 3, l = 3;
-        float d = 0.5f, s = 0.5f;
-        boolean ac = false;
+        Options o = new Options();
         boolean benchmark = false;
+        boolean micro = false;
+        String sweepFileName = null;
+        String batchFileName = null;
+        String outFileName = "sweep.csv";
+        boolean threadsGiven = false;
         int nrun = 0;
         boolean printMinion = false;
+        boolean gzipMinion = false;
         String minionFileName = null;
+        String saveFileName = null;
         
         // command line parser - rudimental (no error checking)
         for (int i=0; i<args.length; i++) {
@@ -774,64 +6426,304 @@ public class Solver {
         		minionFileName = args[i+1];
         		i++;
         	} 
+        	else if (args[i].equals("-save")) {
+        		saveFileName = args[i+1];
+        		i++;
+        	}
+        	else if (args[i].equals("-nodes")) {
+        		o.nodeLimit = Long.parseLong(args[i+1]);
+        		i++;
+        	}
+        	else if (args[i].equals("-time")) {
+        		o.timeLimit = Long.parseLong(args[i+1]);
+        		i++;
+        	}
+        	else if (args[i].equals("-load")) {
+        		o.instance = args[i+1];
+        		i++;
+        	}
+        	else if (args[i].equals("-gz")) {
+        		gzipMinion = true;
+        	}
         	else if (args[i].equals("-b")) {
         		benchmark = true;
                 nrun = Integer.parseInt(args[i+1]);
                 i++;
         	}
+        	else if (args[i].equals("-mb")) {
+        		micro = true;
+        	}
+        	else if (args[i].equals("-sweep")) {
+        		sweepFileName = args[i+1];
+        		i++;
+        	}
+        	else if (args[i].equals("-batch")) {
+        		batchFileName = args[i+1];
+        		i++;
+        	}
+        	else if (args[i].equals("-o")) {
+        		outFileName = args[i+1];
+        		i++;
+        	}
         	else if (args[i].equals("-n")) {
-                n = Integer.parseInt(args[i+1]);
+                o.n = Integer.parseInt(args[i+1]);
                 i++;
             }
             else if(args[i].equals("-l")) {
-                l = Integer.parseInt(args[i+1]);
+                o.l = Integer.parseInt(args[i+1]);
                 i++;
             }
             else if(args[i].equals("-d")) {
-                d = Float.parseFloat(args[i+1]);
+                o.d = Float.parseFloat(args[i+1]);
                 i++;
             }
             else if(args[i].equals("-s")) {
-                s = Float.parseFloat(args[i+1]);
+                o.s = Float.parseFloat(args[i+1]);
                 i++;
             }
             else if(args[i].equals("-ac")) {
-                ac = true;
+                o.ac = true;
+            }
+            else if(args[i].equals("-ac3")) {
+                o.ac3 = true;
+            }
+            else if(args[i].equals("-t")) {
+                o.threads = Integer.parseInt(args[i+1]);
+                threadsGiven = true;
+                i++;
+            }
+            else if(args[i].equals("-split")) {
+                o.splitDepth = Integer.parseInt(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-vo")) {
+                o.varOrder = args[i+1];
+                if (VarOrder.byName(o.varOrder) == null) {
+                    System.out.println("Error: unknown variable ordering " + o.varOrder);
+                    System.exit(1);
+                }
+                i++;
+            }
+            else if(args[i].equals("-seed")) {
+                o.seeded = true;
+                o.seed = Long.parseLong(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-cf")) {
+                o.costFiltering = true;
+            }
+            else if(args[i].equals("-list")) {
+                o.listDomains = true;
+            }
+            else if(args[i].equals("-lns")) {
+                o.lns = args[i+1];
+                i++;
+            }
+            else if(args[i].equals("-lnsnodes")) {
+                o.lnsNodes = Long.parseLong(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-ls")) {
+                o.lsTime = Long.parseLong(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-elim")) {
+                o.elimCells = Long.parseLong(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-offheap")) {
+                o.offHeap = true;
+            }
+            else if(args[i].equals("-hash")) {
+                o.hashTables = true;
+            }
+            else if(args[i].equals("-restarts")) {
+                o.restarts = args[i+1];
+                if (!o.restarts.equals("luby") && !o.restarts.equals("geom")) {
+                    System.out.println("Error: unknown restart strategy " + o.restarts);
+                    System.exit(1);
+                }
+                i++;
+            }
+            else if(args[i].equals("-rbase")) {
+                o.restartBase = Long.parseLong(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-portfolio")) {
+                o.portfolio = Integer.parseInt(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-prop")) {
+                o.prop = args[i+1];
+                if (!Arrays.asList("none", "fc", "rootac", "mac").contains(o.prop)) {
+                    System.out.println("Error: unknown propagation level " + o.prop);
+                    System.exit(1);
+                }
+                i++;
+            }
+            else if(args[i].equals("-pre")) {
+                o.preTime = Long.parseLong(args[i+1]);
+                i++;
+            }
+            else if(args[i].equals("-cc")) {
+                o.decompose = true;
+            }
+            else if(args[i].equals("-stats")) {
+                // read once, when Stats is first used by a search
+                System.setProperty("solver.stats", "true");
             } else {
                 System.out.println("Error: unknown parameter.");
                 System.out.println("Options:\t-n\t(int) number of variables");
+                System.out.println("\t\t-b\t(int) benchmark: number of runs");
+                System.out.println("\t\t-mb\tmicrobenchmarks of the solver hot paths");
+                System.out.println("\t\t-sweep\t(file) benchmark every point of a sweep spec");
+                System.out.println("\t\t-o\t(file) sweep results (default sweep.csv)");
+                System.out.println("\t\t-batch\t(file|-) solve every problem of a file, one JSON line each");
+                System.out.println("\t\t-m\t(file) write the problem for minion");
+                System.out.println("\t\t-gz\tgzip the minion file (implied by a .gz name)");
+                System.out.println("\t\t-save\t(file) write the problem as a binary instance");
+                System.out.println("\t\t-load\t(file) solve an instance (binary, .minion or .xml) instead of a random one");
                 System.out.println("\t\t-l\t(int) cardinality of domains");
                 System.out.println("\t\t-d\t(float) density of constraints");
                 System.out.println("\t\t-s\t(float) strictness of constraints");
                 System.out.println("\t\t-ac\tdo propagation");
+                System.out.println("\t\t-ac3\tdo propagation with AC-3/AC-2001");
+                System.out.println("\t\t-prop\tpropagation level: none, fc, rootac (AC at the root, then fc), mac");
+                System.out.println("\t\t-t\t(int) number of threads");
+                System.out.println("\t\t-split\t(int) depth above which subtrees run in parallel");
+                System.out.println("\t\t-vo\tvariable ordering: lex, dom, domdeg, domwdeg");
+                System.out.println("\t\t-seed\t(long) seed of the random problems");
+                System.out.println("\t\t-cf\tprune values that can't beat the best solution");
+                System.out.println("\t\t-list\tuse list domains instead of bitsets");
+                System.out.println("\t\t-hash\tuse hash sets of pairs instead of bit tables");
+                System.out.println("\t\t-offheap\tkeep the tables off heap, one orientation each");
+                System.out.println("\t\t-elim\t(int) solve by bucket elimination instead of search, if its messages fit in this many cells");
+                System.out.println("\t\t-ls\t(int) ms of local search for a first solution, one per thread");
+                System.out.println("\t\t-lns\tlarge neighbourhood search: random, graph, low, mix");
+                System.out.println("\t\t-lnsnodes\t(int) nodes searched in a neighbourhood (default 1000)");
+                System.out.println("\t\t-nodes\t(int) stop a search after this many nodes");
+                System.out.println("\t\t-time\t(int) stop a search after this many ms");
+                System.out.println("\t\t-restarts\trestart on node cutoffs: luby, geom");
+                System.out.println("\t\t-rbase\t(int) nodes of the first restart (default 100)");
+                System.out.println("\t\t-portfolio\t(int) differently configured searches run side by side");
+                System.out.println("\t\t-pre\t(int) ms of SAC and substitutability preprocessing");
+                System.out.println("\t\t-cc\tsolve the connected components separately");
+                System.out.println("\t\t-stats\tcount checks, revisions, prunings, nodes per depth");
                 System.exit(1);
             }
         }
 
-        if (benchmark) {
+        try {
+        	// -t of sweeps and batches is for the runs, not the searches
+        	Options c = o.copy();
+        	if (sweepFileName != null || batchFileName != null) {
+        		c.threads = 1;
+        	}
+        	c.checkElim();
+        	c.checkRestarts();
+        } catch (IllegalArgumentException e) {
+        	System.out.println("Error: " + e.getMessage());
+        	System.exit(1);
+        }
+
+        if (sweepFileName != null) {
+        	// sweep mode: with no -t use every core
+        	int threads = threadsGiven ? o.threads
+        			: Runtime.getRuntime().availableProcessors();
+        	Sweep sw = new Sweep(o);
+        	try {
+        		sw.parse(sweepFileName);
+        		sw.runAll(threads);
+        		sw.write(outFileName);
+        	} catch (IOException e) {
+        		System.err.println("Error while running sweep " + sweepFileName
+        				+ ": " + e.getMessage());
+        		System.exit(1);
+        	} catch (InterruptedException e) {
+        		System.exit(1);
+        	}
+        } else if (batchFileName != null) {
+        	// batch mode: as many solves at a time as cores, unless -t
+        	int threads = threadsGiven ? o.threads
+        			: Runtime.getRuntime().availableProcessors();
+        	Batch b = new Batch(o, threads, new PrintWriter(System.out));
+        	try {
+        		b.run(batchFileName);
+        	} catch (IOException e) {
+        		System.err.println("Error while reading batch " + batchFileName
+        				+ ": " + e.getMessage());
+        		System.exit(1);
+        	} catch (InterruptedException e) {
+        		System.exit(1);
+        	}
+        } else if (micro) {
+        	new Microbenchmark(o).runAll();
+        } else if (benchmark) {
         	// benchmark mode
-        	RandomProblemBenchmark rpb = new RandomProblemBenchmark(n, l, d, s, ac);
+        	RandomProblemBenchmark rpb = new RandomProblemBenchmark(o);
         	Benchmark b = new Benchmark(rpb, nrun);
         	rpb.printParameters();
         	b.runAll();
         } else {
         	// generate a problem and solve it
-        	Problem p = new RandomProblem(n, l, d, s, new MaxSum(), 
-        			new MaxSum(), ac);
+        	Problem p = null;
+        	if (o.instance != null) {
+        		try {
+        			p = InstanceReader.load(o.instance, o);
+        		} catch (IOException e) {
+        			System.err.println("Error while loading " + o.instance + ": " + e.getMessage());
+        			System.exit(1);
+        		}
+        	} else {
+        		p = new RandomProblem(o, new MaxSum(), new MaxSum());
+        	}
+        	if (saveFileName != null) {
+        		try {
+        			InstanceFile.save(p, saveFileName);
+        		} catch (IOException e) {
+        			System.err.println("Error while creating file " + saveFileName);
+        		}
+        	}
         	if (printMinion) {
-        		StringBuffer sb = new StringBuffer();
-        		p.toMinion(sb);
         		try {
-        			FileWriter f = new FileWriter(minionFileName);
-        			f.write(sb.toString());
-        			f.close();
+        			MinionWriter w = new MinionWriter(minionFileName,
+        					gzipMinion || minionFileName.endsWith(".gz"));
+        			p.toMinion(w);
+        			w.close();
         		} catch (IOException e) {
         			System.err.println("Error while creating file " + minionFileName);
         		}
         	}
         	System.out.println(p); // print generated problem
-        	p.bb(0); // solve it
+        	p.setProgressListener(new Problem.ProgressListener() {
+        		public void improved(int value, List<Integer> sol, long elapsed) {
+        			System.out.println("Improved: " + value + " after " + elapsed + " ms");
+        		}
+        	});
+        	p.solve(); // solve it
            	p.printSol(); // print its solution
+           	if (!p.isProven()) {
+           		System.out.println("Optimality not proven: "
+           				+ (p.hasLns() ? "large neighbourhood search" : "out of budget"));
+           	}
+           	if (p.getLns() != null) {
+           		LargeNeighbourhoodSearch lns = p.getLns();
+           		System.out.println("LNS: " + lns.getRuns() + " neighbourhoods, "
+           				+ lns.getImproved() + " improved, last of " + lns.getSize() + " variables");
+           	}
+           	if (p.getElimWidth() >= 0) {
+           		System.out.println("Solved by bucket elimination, induced width " + p.getElimWidth()
+           				+ ", " + p.getElimCells() + " message cells");
+           	}
+           	if (p.hasPreprocessing()) {
+           		System.out.println("Preprocessing: " + p.getSacRemoved() + " values removed by SAC, "
+           				+ p.getNsRemoved() + " substitutable, search space 10^"
+           				+ String.format("%.1f", p.getSpaceBefore()) + " -> 10^"
+           				+ String.format("%.1f", p.getSpaceAfter()));
+           	}
+           	if (Stats.ENABLED) {
+           		System.out.println(p.getStats());
+           	}
         }
     }
 }